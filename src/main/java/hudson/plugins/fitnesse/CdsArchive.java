@@ -0,0 +1,167 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Class data sharing archives of the classes a FitNesse JVM loads, cached on
+ * the node by fitnesse.jar and JDK. The first JVM launched for a jar and JDK
+ * dumps the archive when it exits, the following ones map it instead of
+ * loading and verifying the same classes again.
+ * <p>
+ * A JVM only maps an archive dumped for the same classpath, jar and JDK
+ * build, so archives are named after the absolute path of the jar, its
+ * modification time and size, and the version of the JDK. Whenever one of
+ * these changes, the archives of the former ones are deleted and a new one is
+ * dumped. Each JVM dumps to a name of its own, moved into place once it
+ * stopped, so that builds launching concurrently don't write the same file.
+ */
+class CdsArchive {
+	static final String DIR = "fitnesse-cds";
+	private static final String EXTENSION = ".jsa";
+	private static final String DUMP_EXTENSION = ".tmp";
+
+	/**
+	 * @return the name of the archive of the jar at the given absolute path,
+	 *         in the given state, run by the JDK of the given version
+	 */
+	static String getFileName(String jarPath, long jarLastModified, long jarLength, String jdkVersion) {
+		return getPrefix(jarPath) + Util.getDigestOf(jarLastModified + "\n" + jarLength + "\n" + jdkVersion)
+				+ EXTENSION;
+	}
+
+	/**
+	 * @return the start of the names of all archives of the jar at the given
+	 *         absolute path
+	 */
+	static String getPrefix(String jarPath) {
+		return Util.getDigestOf(jarPath) + "-";
+	}
+
+	/**
+	 * @return a name to dump the given archive to, unique to one launch
+	 */
+	static String getDumpName(String fileName) {
+		return fileName + "." + UUID.randomUUID() + DUMP_EXTENSION;
+	}
+
+	static boolean isDump(String path) {
+		return path.endsWith(DUMP_EXTENSION);
+	}
+
+	/**
+	 * @return the name of the archive the given dump is for
+	 */
+	static String getArchiveName(String dumpName) {
+		return dumpName.substring(0, dumpName.indexOf(EXTENSION + ".") + EXTENSION.length());
+	}
+
+	/**
+	 * Dynamic archives need JDK 13 or later. Older JVMs ignore the options
+	 * rather than refuse to start, and any JVM falls back to loading classes
+	 * the usual way when the archive doesn't match it.
+	 */
+	static List<String> getOptions(String archivePath, boolean archiveExists) {
+		return Arrays.asList("-XX:+IgnoreUnrecognizedVMOptions", "-Xshare:auto",
+				(archiveExists ? "-XX:SharedArchiveFile=" : "-XX:ArchiveClassesAtExit=") + archivePath);
+	}
+
+	/**
+	 * @return the release file of the JDK of the given java executable, the
+	 *         output of <tt>java -version</tt> if it has none
+	 */
+	static String getJdkVersion(String java) throws IOException {
+		File bin = new File(java).getParentFile();
+		if (bin != null && bin.getParentFile() != null) {
+			File release = new File(bin.getParentFile(), "release");
+			if (release.isFile())
+				return new String(Files.readAllBytes(release.toPath()), "UTF-8");
+		}
+		Process process = new ProcessBuilder(java, "-version").redirectErrorStream(true).start();
+		ByteArrayOutputStream version = new ByteArrayOutputStream();
+		InputStream output = process.getInputStream();
+		try {
+			byte[] buf = new byte[4096];
+			int read;
+			while ((read = output.read(buf)) > 0) {
+				version.write(buf, 0, read);
+			}
+		} finally {
+			output.close();
+		}
+		try {
+			process.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return version.toString("UTF-8");
+	}
+
+	/**
+	 * Looks up the archive of a jar and JDK in the directory it is called on,
+	 * deleting the archives of that jar which no longer match it.
+	 *
+	 * @return the path of the archive to map, or to dump to if there is none
+	 *         yet, see {@link CdsArchive#isDump(String)}
+	 */
+	static class Prepare extends MasterToSlaveFileCallable<String> {
+		private static final long serialVersionUID = 1L;
+		private final String java;
+		private final String jar;
+
+		Prepare(String java, String jar) {
+			this.java = java;
+			this.jar = jar;
+		}
+
+		public String invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Can't create " + dir);
+			File jarFile = new File(jar).getAbsoluteFile();
+			String fileName = getFileName(jarFile.getPath(), jarFile.lastModified(), jarFile.length(),
+					getJdkVersion(java));
+			File archive = new File(dir, fileName);
+			if (archive.isFile())
+				return archive.getPath();
+			String prefix = getPrefix(jarFile.getPath());
+			File[] files = dir.listFiles();
+			for (File file : files == null ? new File[0] : files) {
+				if (file.getName().startsWith(prefix) && file.getName().endsWith(EXTENSION))
+					file.delete();
+			}
+			return new File(dir, getDumpName(fileName)).getPath();
+		}
+	}
+
+	/**
+	 * Moves the archive a JVM dumped when it stopped into place, unless another
+	 * launch got there first.
+	 *
+	 * @return true if the dump became the archive
+	 */
+	static class Publish extends MasterToSlaveFileCallable<Boolean> {
+		private static final long serialVersionUID = 1L;
+
+		public Boolean invoke(File dump, VirtualChannel channel) throws IOException, InterruptedException {
+			if (!dump.isFile())
+				return false;
+			File archive = new File(dump.getParentFile(), getArchiveName(dump.getName()));
+			if (archive.isFile() || !dump.renameTo(archive)) {
+				dump.delete();
+				return false;
+			}
+			return true;
+		}
+	}
+}
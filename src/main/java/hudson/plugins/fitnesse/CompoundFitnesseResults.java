@@ -2,7 +2,16 @@ package hudson.plugins.fitnesse;
 
 import hudson.plugins.fitnesse.NativePageCounts.Counts;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A subclass of FitNesseResults that encapsulates multiple results into one
@@ -32,6 +41,121 @@ public class CompoundFitnesseResults extends FitnesseResults {
 		return new CompoundFitnesseResults(resultsList, counts);
 	}
 
+	/**
+	 * Merges the results of a build that executed only some pages over the
+	 * results of an earlier build. Pages found in both take the fresh results,
+	 * pages only found in the earlier build are carried forward, and the shape
+	 * of the earlier results (files and pages) is kept. Pages only found in the
+	 * fresh results are added as a file of their own.
+	 *
+	 * @param freshOrigin
+	 *          marks the pages taken from the fresh results, may be null
+	 * @param carriedOrigin
+	 *          marks the pages taken from the earlier results, may be null
+	 * @param rootDir
+	 *          the build directory the html content of carried pages is copied
+	 *          to, so that it survives the earlier build being discarded
+	 */
+	public static FitnesseResults mergeOver(FitnesseResults previous, FitnesseResults fresh, String freshOrigin,
+			String carriedOrigin, File rootDir) {
+		return mergeOver(previous, fresh, freshOrigin, carriedOrigin, Collections.<String> emptySet(), rootDir);
+	}
+
+	/**
+	 * @param removedPages
+	 *          pages of the earlier results that no longer exist and are
+	 *          dropped rather than carried forward
+	 */
+	public static FitnesseResults mergeOver(FitnesseResults previous, FitnesseResults fresh, String freshOrigin,
+			String carriedOrigin, Collection<String> removedPages, File rootDir) {
+		Map<String, FitnesseResults> freshPages = new LinkedHashMap<String, FitnesseResults>();
+		if (fresh != null) {
+			for (FitnesseResults page : fresh.getLeafResults()) {
+				freshPages.put(page.getName(), page);
+			}
+		}
+
+		List<FitnesseResults> files = new ArrayList<FitnesseResults>();
+		for (FitnesseResults file : previous instanceof CompoundFitnesseResults ? previous.getChildResults()
+				: Collections.singletonList(previous)) {
+			FitnesseResults merged = merge(file, freshPages, freshOrigin, carriedOrigin, removedPages, rootDir);
+			if (merged != null)
+				files.add(merged);
+		}
+
+		if (!freshPages.isEmpty()) {
+			List<FitnesseResults> newPages = new ArrayList<FitnesseResults>();
+			for (FitnesseResults page : freshPages.values()) {
+				newPages.add(copyOf(page, freshOrigin, rootDir));
+			}
+			files.add(tallied(fresh.getName(), fresh.getResultsDate(), newPages));
+		}
+
+		if (files.isEmpty())
+			return fresh;
+		if (files.size() == 1)
+			return files.get(0);
+		return createFor(files);
+	}
+
+	private static FitnesseResults merge(FitnesseResults node, Map<String, FitnesseResults> freshPages,
+			String freshOrigin, String carriedOrigin, Collection<String> removedPages, File rootDir) {
+		if (!node.hasChildResults()) {
+			FitnesseResults freshPage = freshPages.remove(node.getName());
+			if (freshPage != null)
+				return copyOf(freshPage, freshOrigin, rootDir);
+			if (removedPages.contains(node.getName()))
+				return null;
+			return copyOf(node, carriedOrigin, rootDir);
+		}
+
+		List<FitnesseResults> children = new ArrayList<FitnesseResults>();
+		for (FitnesseResults child : node.getChildResults()) {
+			FitnesseResults merged = merge(child, freshPages, freshOrigin, carriedOrigin, removedPages, rootDir);
+			if (merged != null)
+				children.add(merged);
+		}
+		if (children.isEmpty())
+			return null;
+		return tallied(node.getName(), node.getResultsDate(), children);
+	}
+
+	private static FitnesseResults tallied(String name, String resultsDate, List<FitnesseResults> children) {
+		PageTally tally = new PageTally();
+		for (FitnesseResults child : children) {
+			tally.add(child.getPageCounts());
+		}
+		FitnesseResults results = new FitnesseResults(tally.toCounts(name, resultsDate, null));
+		for (FitnesseResults child : children) {
+			results.addChild(child);
+		}
+		return results;
+	}
+
+	private static FitnesseResults copyOf(FitnesseResults page, String origin, File rootDir) {
+		Counts counts = page.getPageCounts();
+		FitnesseResults copy = new FitnesseResults(new Counts(counts.page, counts.resultsDate, counts.right,
+				counts.wrong, counts.ignored, counts.exceptions, counts.duration, copyContent(counts.contentFile, rootDir)));
+		copy.setOrigin(origin);
+		return copy;
+	}
+
+	private static String copyContent(String contentFile, File rootDir) {
+		if (contentFile == null || rootDir == null)
+			return contentFile;
+		File source = new File(contentFile);
+		File target = new File(rootDir, source.getName());
+		if (source.getAbsoluteFile().equals(target.getAbsoluteFile()))
+			return contentFile;
+		try {
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return target.getAbsolutePath();
+		} catch (IOException e) {
+			// keep pointing at the earlier build's copy
+			return contentFile;
+		}
+	}
+
 	public CompoundFitnesseResults(List<FitnesseResults> resultsList, Counts counts) {
 		super(counts);
 		for (FitnesseResults fitnesseResults : resultsList) {
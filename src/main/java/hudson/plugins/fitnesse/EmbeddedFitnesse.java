@@ -0,0 +1,222 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Runs FitNesse in command mode inside the JVM of the node instead of forking
+ * a new one. fitnesse.jar is loaded through a class loader of its own, isolated
+ * from Jenkins, and kept for as long as the jar doesn't change, so that later
+ * builds find its classes loaded already. A loader is only closed once no
+ * build uses it any more, and one whose FitNesse run ended abnormally, e.g.
+ * stopped at the timeout, isn't used again as its static state may be left
+ * part-way through. It executes in a thread of its own,
+ * given up on at the test timeout.
+ */
+class EmbeddedFitnesse {
+	static final String MAIN_CLASS = "fitnesseMain.FitNesseMain";
+	static final String ARGUMENTS_CLASS = "fitnesseMain.Arguments";
+	/** How long FitNesse gets to stop once interrupted at the timeout */
+	static final long STOP_GRACE_MILLIS = 10000;
+
+	/** Class loaders of the jars run on this node, by path */
+	private static final Map<String, CachedLoader> LOADERS = new HashMap<String, CachedLoader>();
+
+	static class CachedLoader {
+		final long lastModified;
+		final long length;
+		final URLClassLoader loader;
+		/** How many FitNesse runs use the loader */
+		int users;
+		/** Set once the loader is no longer handed out */
+		boolean retired;
+
+		CachedLoader(File jar) throws IOException {
+			this.lastModified = jar.lastModified();
+			this.length = jar.length();
+			this.loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, ClassLoader.getSystemClassLoader()
+					.getParent());
+		}
+
+		boolean isUpToDate(File jar) {
+			return jar.lastModified() == lastModified && jar.length() == length;
+		}
+	}
+
+	/**
+	 * @return the loader of the jar, to {@link #release} once done with it
+	 */
+	static CachedLoader acquire(File jar) throws IOException {
+		synchronized (LOADERS) {
+			CachedLoader cached = LOADERS.get(jar.getAbsolutePath());
+			if (cached == null || !cached.isUpToDate(jar)) {
+				if (cached != null)
+					retire(jar.getAbsolutePath(), cached);
+				cached = new CachedLoader(jar);
+				LOADERS.put(jar.getAbsolutePath(), cached);
+			}
+			++cached.users;
+			return cached;
+		}
+	}
+
+	/**
+	 * @param discard
+	 *          true if the loader must not be handed out again
+	 */
+	static void release(File jar, CachedLoader cached, boolean discard) throws IOException {
+		synchronized (LOADERS) {
+			--cached.users;
+			if (discard)
+				retire(jar.getAbsolutePath(), cached);
+			else if (cached.retired && cached.users == 0)
+				cached.loader.close();
+		}
+	}
+
+	private static void retire(String path, CachedLoader cached) throws IOException {
+		if (LOADERS.get(path) == cached)
+			LOADERS.remove(path);
+		cached.retired = true;
+		if (cached.users == 0)
+			cached.loader.close();
+	}
+
+	/**
+	 * Stops handing out the current loader of the jar, e.g. after a run of
+	 * FitNesse that had to be stopped.
+	 */
+	static void discard(File jar) throws IOException {
+		synchronized (LOADERS) {
+			CachedLoader cached = LOADERS.get(jar.getAbsolutePath());
+			if (cached != null)
+				retire(jar.getAbsolutePath(), cached);
+		}
+	}
+
+	static ClassLoader getLoader(File jar) throws IOException {
+		CachedLoader cached = acquire(jar);
+		release(jar, cached, false);
+		return cached.loader;
+	}
+
+	/**
+	 * Calls <tt>new FitNesseMain().launchFitNesse(new Arguments(args))</tt>
+	 * the way <tt>java -jar fitnesse.jar args</tt> would, minus the
+	 * System.exit.
+	 *
+	 * @return the exit code FitNesse returned, the number of failed tests in
+	 *         command mode
+	 */
+	static int launch(File jar, List<String> args) throws IOException {
+		CachedLoader cached = acquire(jar);
+		ClassLoader loader = cached.loader;
+		Thread thread = Thread.currentThread();
+		ClassLoader contextLoader = thread.getContextClassLoader();
+		thread.setContextClassLoader(loader);
+		boolean completed = false;
+		try {
+			Class<?> argumentsClass = loader.loadClass(ARGUMENTS_CLASS);
+			Object arguments = argumentsClass.getConstructor(String[].class).newInstance(
+					(Object) args.toArray(new String[args.size()]));
+			Object main = loader.loadClass(MAIN_CLASS).newInstance();
+			Object exitCode = main.getClass().getMethod("launchFitNesse", argumentsClass).invoke(main, arguments);
+			completed = true;
+			return exitCode instanceof Integer ? (Integer) exitCode : 0;
+		} catch (InvocationTargetException e) {
+			throw new IOException("FitNesse failed: " + e.getCause(), e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Can't run FitNesse from " + jar + " in-process, it needs " + MAIN_CLASS
+					+ ".launchFitNesse(" + ARGUMENTS_CLASS + "): " + e, e);
+		} finally {
+			thread.setContextClassLoader(contextLoader);
+			release(jar, cached, !completed);
+		}
+	}
+
+	/**
+	 * Runs the task in a thread of its own for at most the given time. A task
+	 * still running then is interrupted and, if it ignores that for the grace
+	 * period, stopped, as it would otherwise keep running in the JVM of the
+	 * node.
+	 *
+	 * @return the result of the task, null if it timed out
+	 */
+	@SuppressWarnings("deprecation")
+	static Integer runWithTimeout(final Callable<Integer> task, String name, long timeoutMillis, long graceMillis)
+			throws IOException, InterruptedException {
+		final Integer[] result = new Integer[1];
+		final IOException[] failure = new IOException[1];
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					result[0] = task.call();
+				} catch (IOException e) {
+					failure[0] = e;
+				} catch (Exception e) {
+					failure[0] = new IOException(e);
+				}
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		boolean finished = false;
+		try {
+			thread.join(timeoutMillis);
+			finished = !thread.isAlive();
+		} finally {
+			if (!finished) {
+				thread.interrupt();
+				thread.join(graceMillis);
+				if (thread.isAlive())
+					thread.stop();
+			}
+		}
+		if (!finished)
+			return null;
+		if (failure[0] != null)
+			throw failure[0];
+		return result[0];
+	}
+
+	static class Launch extends MasterToSlaveCallable<Integer, IOException> {
+		private static final long serialVersionUID = 1L;
+		private final String jar;
+		private final List<String> args;
+		private final long timeoutMillis;
+
+		Launch(String jar, List<String> args, long timeoutMillis) {
+			this.jar = jar;
+			this.args = args;
+			this.timeoutMillis = timeoutMillis;
+		}
+
+		/**
+		 * @return the exit code of FitNesse, null if it timed out
+		 */
+		public Integer call() throws IOException {
+			try {
+				Integer exitCode = runWithTimeout(new Callable<Integer>() {
+					public Integer call() throws IOException {
+						return launch(new File(jar), args);
+					}
+				}, "Embedded FitNesse " + args, timeoutMillis, STOP_GRACE_MILLIS);
+				if (exitCode == null)
+					discard(new File(jar));
+				return exitCode;
+			} catch (InterruptedException e) {
+				throw (IOException) new InterruptedIOException("Interrupted while FitNesse executed").initCause(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package hudson.plugins.fitnesse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The target pages left to execute on a farm of FitNesse servers. Every
+ * server takes the next page as soon as it finished its previous one, so
+ * that each executes a share of the pages in proportion to its throughput.
+ * A page whose results were cut off is put back for another server to take,
+ * up to a number of attempts, and servers keep waiting for pages as long as
+ * some are being executed, as these may come back. A server doesn't take a
+ * page it cut off before again as long as some other server that didn't is
+ * still executing pages.
+ */
+class EndpointQueue {
+	private final LinkedList<String> pages = new LinkedList<String>();
+	private final Map<String, Integer> attempts = new HashMap<String, Integer>();
+	private final Map<String, Set<String>> failedOn = new HashMap<String, Set<String>>();
+	private final Set<String> endpoints = new HashSet<String>();
+	private final int maxAttempts;
+	private int inProgress;
+
+	EndpointQueue(Collection<String> pages, Collection<String> endpoints, int maxAttempts) {
+		this.pages.addAll(pages);
+		this.endpoints.addAll(endpoints);
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return the next page for the server at the given endpoint to execute,
+	 *         or null once all pages were executed
+	 */
+	synchronized String take(String endpoint) throws InterruptedException {
+		while (!pages.isEmpty() || inProgress > 0) {
+			String page = takeFor(endpoint);
+			if (page != null) {
+				Integer attempt = attempts.get(page);
+				attempts.put(page, attempt == null ? 1 : attempt + 1);
+				++inProgress;
+				return page;
+			}
+			wait();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the first page that the given endpoint didn't cut off before,
+	 *         or that every server still executing pages cut off already
+	 */
+	private String takeFor(String endpoint) {
+		for (Iterator<String> it = pages.iterator(); it.hasNext();) {
+			String page = it.next();
+			Set<String> failed = failedOn.get(page);
+			if (failed == null || !failed.contains(endpoint) || failed.containsAll(endpoints)) {
+				it.remove();
+				return page;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Records that a taken page was executed.
+	 */
+	synchronized void done(String page) {
+		--inProgress;
+		notifyAll();
+	}
+
+	/**
+	 * Puts a taken page back to be executed again, unless it was attempted
+	 * often enough already. The server at the given endpoint cut it off, so
+	 * that another one takes it if there is one.
+	 *
+	 * @return true if the page was put back
+	 */
+	synchronized boolean retry(String page, String endpoint) {
+		--inProgress;
+		notifyAll();
+		if (attempts.get(page) >= maxAttempts)
+			return false;
+		Set<String> failed = failedOn.get(page);
+		if (failed == null) {
+			failed = new HashSet<String>();
+			failedOn.put(page, failed);
+		}
+		failed.add(endpoint);
+		pages.addFirst(page);
+		return true;
+	}
+
+	/**
+	 * Records that the server at the given endpoint stopped taking pages, so
+	 * that the others take the pages it cut off again.
+	 */
+	synchronized void leave(String endpoint) {
+		endpoints.remove(endpoint);
+		notifyAll();
+	}
+
+	/**
+	 * @return the pages no server took, e.g. because all of them failed
+	 */
+	synchronized List<String> getRemaining() {
+		return new ArrayList<String>(pages);
+	}
+
+	/**
+	 * @return the host of a <tt>host:port</tt> endpoint
+	 */
+	static String getHost(String endpoint) {
+		int pos = endpoint.lastIndexOf(':');
+		return pos == -1 ? endpoint : endpoint.substring(0, pos);
+	}
+
+	/**
+	 * @return the port of a <tt>host:port</tt> endpoint, or the given default
+	 *         port if it has none
+	 */
+	static int getPort(String endpoint, int defaultPort) {
+		int pos = endpoint.lastIndexOf(':');
+		return pos == -1 ? defaultPort : Integer.parseInt(endpoint.substring(pos + 1));
+	}
+}
@@ -0,0 +1,126 @@
+package hudson.plugins.fitnesse;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.BuildListener;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.tasks.BuildWrapper;
+import hudson.tasks.BuildWrapperDescriptor;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Starts FitNesse as the build starts and stops it when the build ends, so
+ * that FitNesse starts up while the build compiles and packages instead of
+ * when the tests are due. {@link FitnesseBuilder} steps using an already
+ * running instance at <tt>${FITNESSE_HOSTNAME}</tt> and
+ * <tt>${FITNESSE_PORT}</tt> wait until it answers.
+ */
+public class FitnesseBuildWrapper extends BuildWrapper {
+	public static final String FITNESSE_HOSTNAME = "FITNESSE_HOSTNAME";
+	public static final String FITNESSE_PORT = "FITNESSE_PORT";
+
+	/** The options of a builder starting FitNesse, {@link FitnesseBuilder#getJavaCmd} style */
+	private Map<String, String> options;
+
+	@DataBoundConstructor
+	public FitnesseBuildWrapper(Map<String, String> options) {
+		this.options = options;
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public FitnesseBuilder getStartOptions() {
+		Map<String, String> startOptions = new HashMap<String, String>(options);
+		startOptions.put(FitnesseBuilder.START_FITNESSE, "True");
+		return new FitnesseBuilder(startOptions);
+	}
+
+	@Override
+	public Environment setUp(AbstractBuild build, final Launcher launcher, BuildListener listener) throws IOException,
+			InterruptedException {
+		EnvVars envVars = build.getEnvironment(listener);
+		FitnesseBuilder startOptions = getStartOptions();
+		final FitnesseExecutor executor = new FitnesseExecutor(startOptions, listener, envVars);
+		final Proc proc;
+		try {
+			proc = executor.startInstance(launcher, build);
+		} catch (IOException e) {
+			executor.stopInstance(launcher, build, null);
+			throw e;
+		}
+		final String host = startOptions.getFitnesseHost(build, envVars);
+		final int port = executor.getFitnessePort();
+		final URL frontPage = new URL("http", host, port, "/");
+		final FutureTask<Boolean> ready = new FutureTask<Boolean>(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return proc.isAlive() && executor.isFitnesseStarted(frontPage);
+			}
+		});
+		Thread probe = new Thread(ready, "FitNesse readiness probe for " + build);
+		probe.setDaemon(true);
+		probe.start();
+		build.addAction(new FitnesseInstanceAction(host, port, ready));
+
+		return new Environment() {
+			@Override
+			public void buildEnvVars(Map<String, String> env) {
+				env.put(FITNESSE_HOSTNAME, host);
+				env.put(FITNESSE_PORT, Integer.toString(port));
+			}
+
+			@Override
+			public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException,
+					InterruptedException {
+				ready.cancel(true);
+				executor.stopInstance(launcher, build, proc);
+				return true;
+			}
+		};
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends BuildWrapperDescriptor {
+
+		@Override
+		public boolean isApplicable(AbstractProject<?, ?> item) {
+			return true;
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Start FitNesse for the duration of the build";
+		}
+
+		/**
+		 * config.jelly names its fields after the options of
+		 * {@link FitnesseBuilder}, so take control of instance creation
+		 */
+		@Override
+		public FitnesseBuildWrapper newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+			Map<String, String> options = new HashMap<String, String>();
+			for (String key : new String[] { FitnesseBuilder.FITNESSE_JDK, FitnesseBuilder.JAVA_OPTS,
+					FitnesseBuilder.JAVA_WORKING_DIRECTORY, FitnesseBuilder.PATH_TO_JAR, FitnesseBuilder.PATH_TO_ROOT,
+					FitnesseBuilder.FITNESSE_PORT_LOCAL, FitnesseBuilder.FITNESSE_ADDITIONAL_OPTIONS,
+					FitnesseBuilder.AUTO_PORT, FitnesseBuilder.CDS_ARCHIVE }) {
+				if (formData.has(key))
+					options.put(key, formData.getString(key));
+			}
+			return new FitnesseBuildWrapper(options);
+		}
+	}
+}
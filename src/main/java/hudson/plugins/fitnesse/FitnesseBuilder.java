@@ -9,6 +9,8 @@ import hudson.model.ModelObject;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
@@ -16,8 +18,14 @@ import hudson.util.FormValidation;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.servlet.ServletException;
 
@@ -52,6 +60,27 @@ public class FitnesseBuilder extends Builder {
 	public static final String HTTP_TIMEOUT = "fitnesseHttpTimeout";
 	public static final String TEST_TIMEOUT = "fitnesseTestTimeout";
 	public static final String JAVA_WORKING_DIRECTORY = "fitnesseJavaWorkingDirectory";
+	public static final String RERUN_FAILED_PAGES = "fitnesseRerunFailedPages";
+	public static final String RUN_FAILED_FIRST = "fitnesseRunFailedFirst";
+	public static final String RUN_IMPACTED_PAGES = "fitnesseRunImpactedPages";
+	public static final String REUSE_RESULTS = "fitnesseReuseResults";
+	public static final String SUT_ARTIFACTS = "fitnesseSutArtifacts";
+	public static final String FAIL_FAST_THRESHOLD = "fitnesseFailFastThreshold";
+	public static final String OUTPUT_TAIL_KB = "fitnesseOutputTailKB";
+	public static final String OUTPUT_PATTERN = "fitnesseOutputPattern";
+	public static final String AUTO_PORT = "fitnesseAutoPort";
+	public static final String EMBEDDED = "fitnesseEmbedded";
+	public static final String COMMAND_MODE = "fitnesseCommandMode";
+	public static final String CDS_ARCHIVE = "fitnesseCdsArchive";
+	public static final String TARGET_CONCURRENCY = "fitnesseTargetConcurrency";
+	public static final String TAG_LANES = "fitnesseTagLanes";
+	public static final String SHARDS = "fitnesseShards";
+	public static final String SHARD_LABEL = "fitnesseShardLabel";
+	public static final String ENDPOINTS = "fitnesseEndpoints";
+	public static final String ROOT_SNAPSHOT = "fitnesseRootSnapshot";
+	public static final String RAM_DIRECTORY = "fitnesseRamDirectory";
+	public static final String JAR_CACHE = "fitnesseJarCache";
+	public static final String STALL_DUMP_SECONDS = "fitnesseStallDumpSeconds";
 
 	static final int _URL_READ_TIMEOUT_MILLIS = 60 * 1000;
 	static final String _LOCALHOST = "localhost";
@@ -65,6 +94,30 @@ public class FitnesseBuilder extends Builder {
 		this.options = options;
 	}
 
+	/**
+	 * @return a copy of this builder executing only the given target page into
+	 *         the given results file
+	 */
+	FitnesseBuilder forTarget(String targetPage, String pathToResults) {
+		Map<String, String> targetOptions = new HashMap<String, String>(options);
+		targetOptions.put(TARGET_PAGE, targetPage);
+		targetOptions.put(PATH_TO_RESULTS, pathToResults);
+		targetOptions.remove(TAG_LANES);
+		return new FitnesseBuilder(targetOptions);
+	}
+
+	/**
+	 * @return a copy of this builder executing the target page on the FitNesse
+	 *         server at the given host and port
+	 */
+	FitnesseBuilder forEndpoint(String host, int port) {
+		Map<String, String> endpointOptions = new HashMap<String, String>(options);
+		endpointOptions.put(FITNESSE_HOST, host);
+		endpointOptions.put(FITNESSE_PORT_REMOTE, String.valueOf(port));
+		endpointOptions.remove(ENDPOINTS);
+		return new FitnesseBuilder(endpointOptions);
+	}
+
 	private String getOption(String key, String valueIfKeyNotFound) {
 		if (options.containsKey(key)) {
 			String value = options.get(key);
@@ -185,6 +238,59 @@ public class FitnesseBuilder extends Builder {
 				getOption(FITNESSE_PORT_LOCAL, getOption(FITNESSE_PORT, "-1", environment), environment), environment));
 	}
 
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseAutoPort() {
+		return Boolean.parseBoolean(getOption(AUTO_PORT, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseEmbedded() {
+		return Boolean.parseBoolean(getOption(EMBEDDED, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseCommandMode() {
+		return Boolean.parseBoolean(getOption(COMMAND_MODE, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseCdsArchive() {
+		return Boolean.parseBoolean(getOption(CDS_ARCHIVE, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseJarCache() {
+		return Boolean.parseBoolean(getOption(JAR_CACHE, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseRootSnapshot() {
+		return Boolean.parseBoolean(getOption(ROOT_SNAPSHOT, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseRamDirectory() {
+		return getOption(RAM_DIRECTORY, "");
+	}
+
+	public String getFitnesseRamDirectory(EnvVars environment) {
+		return getOption(RAM_DIRECTORY, "", environment);
+	}
+
 	/**
 	 * referenced in config.jelly
 	 */
@@ -192,6 +298,10 @@ public class FitnesseBuilder extends Builder {
 		return getOption(PATH_TO_JAR, "fitnesse.jar");
 	}
 
+	public String getFitnessePathToJar(EnvVars environment) {
+		return getOption(PATH_TO_JAR, "fitnesse.jar", environment);
+	}
+
 	/**
 	 * referenced in config.jelly Defaults to empty string
 	 */
@@ -227,6 +337,140 @@ public class FitnesseBuilder extends Builder {
 		return getOption(TARGET_PAGE, "", environment);
 	}
 
+	/**
+	 * @return the target pages, one per line of the target page
+	 */
+	public List<String> getFitnesseTargetPages(EnvVars environment) {
+		List<String> targetPages = new ArrayList<String>();
+		for (String line : getFitnesseTargetPage(environment).split("\\r?\\n")) {
+			if (line.trim().length() > 0)
+				targetPages.add(line.trim());
+		}
+		return targetPages;
+	}
+
+	/**
+	 * @return the target pages, each suite split into one lane per tag group
+	 *         and a last lane of the pages with none of the tags
+	 */
+	public List<String> getFitnesseLaneTargetPages(EnvVars environment) {
+		List<String> tagGroups = getFitnesseTagLanes(environment);
+		if (tagGroups.isEmpty() || !getFitnesseTargetIsSuite())
+			return getFitnesseTargetPages(environment);
+		List<String> lanes = new ArrayList<String>();
+		for (String targetPage : getFitnesseTargetPages(environment)) {
+			lanes.addAll(getLanes(targetPage, tagGroups));
+		}
+		return lanes;
+	}
+
+	/**
+	 * @return the target page filtered by each of the given tag groups,
+	 *         excluding the tags of the groups before so that a page tagged for
+	 *         several lanes is executed in the first of them only, then the
+	 *         target page excluding all of their tags
+	 */
+	static List<String> getLanes(String targetPage, List<String> tagGroups) {
+		List<String> lanes = new ArrayList<String>();
+		StringBuilder earlierTags = new StringBuilder();
+		for (String tagGroup : tagGroups) {
+			lanes.add(targetPage + "&suiteFilter=" + encodeTags(tagGroup)
+					+ (earlierTags.length() == 0 ? "" : "&excludeSuiteFilter=" + earlierTags));
+			earlierTags.append(earlierTags.length() == 0 ? "" : ",").append(encodeTags(tagGroup));
+		}
+		lanes.add(targetPage + "&excludeSuiteFilter=" + earlierTags);
+		return lanes;
+	}
+
+	/**
+	 * @return the comma separated tags, each encoded for the query string
+	 */
+	static String encodeTags(String tags) {
+		StringBuilder encoded = new StringBuilder();
+		for (String tag : tags.split(",")) {
+			try {
+				encoded.append(encoded.length() == 0 ? "" : ",").append(URLEncoder.encode(tag.trim(), "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseEndpoints() {
+		return getOption(ENDPOINTS, "");
+	}
+
+	/**
+	 * @return the <tt>host:port</tt> of each FitNesse server of the farm, one
+	 *         per line
+	 */
+	public List<String> getFitnesseEndpoints(EnvVars environment) {
+		List<String> endpoints = new ArrayList<String>();
+		for (String line : getOption(ENDPOINTS, "", environment).split("\\r?\\n")) {
+			if (line.trim().length() > 0)
+				endpoints.add(line.trim());
+		}
+		return endpoints;
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseShards() {
+		return getOption(SHARDS, "");
+	}
+
+	public int getFitnesseShards(EnvVars environment) {
+		return Integer.parseInt(getOption(SHARDS, "1", environment));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseShardLabel() {
+		return getOption(SHARD_LABEL, "");
+	}
+
+	public String getFitnesseShardLabel(EnvVars environment) {
+		return getOption(SHARD_LABEL, "", environment);
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseTagLanes() {
+		return getOption(TAG_LANES, "");
+	}
+
+	/**
+	 * @return the tag groups, one per line, each a comma separated list of tags
+	 *         without blanks
+	 */
+	public List<String> getFitnesseTagLanes(EnvVars environment) {
+		List<String> tagGroups = new ArrayList<String>();
+		for (String line : getOption(TAG_LANES, "", environment).split("\\r?\\n")) {
+			String tagGroup = line.replaceAll("\\s+", "").replaceAll("^,+|,+$", "");
+			if (tagGroup.length() > 0)
+				tagGroups.add(tagGroup);
+		}
+		return tagGroups;
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseTargetConcurrency() {
+		return getOption(TARGET_CONCURRENCY, "");
+	}
+
+	public int getFitnesseTargetConcurrency(EnvVars environment) {
+		return Integer.parseInt(getOption(TARGET_CONCURRENCY, "4", environment));
+	}
+
 	/**
 	 * referenced in config.jelly
 	 */
@@ -267,6 +511,97 @@ public class FitnesseBuilder extends Builder {
 		return Integer.parseInt(getOption(TEST_TIMEOUT, String.valueOf(_URL_READ_TIMEOUT_MILLIS), environment));
 	}
 
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseRerunFailedPages() {
+		return Boolean.parseBoolean(getOption(RERUN_FAILED_PAGES, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseRunFailedFirst() {
+		return Boolean.parseBoolean(getOption(RUN_FAILED_FIRST, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseRunImpactedPages() {
+		return Boolean.parseBoolean(getOption(RUN_IMPACTED_PAGES, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public boolean getFitnesseReuseResults() {
+		return Boolean.parseBoolean(getOption(REUSE_RESULTS, "False"));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseSutArtifacts() {
+		return getOption(SUT_ARTIFACTS, "");
+	}
+
+	public String getFitnesseSutArtifacts(EnvVars environment) {
+		return getOption(SUT_ARTIFACTS, "", environment);
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseFailFastThreshold() {
+		return getOption(FAIL_FAST_THRESHOLD, "");
+	}
+
+	public int getFitnesseFailFastThreshold(EnvVars environment) {
+		return Integer.parseInt(getOption(FAIL_FAST_THRESHOLD, "0", environment));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseStallDumpSeconds() {
+		return getOption(STALL_DUMP_SECONDS, "");
+	}
+
+	/**
+	 * @return after how many seconds without results the threads of the Java
+	 *         processes of the build are dumped, or 0 if they never are
+	 */
+	public int getFitnesseStallDumpSeconds(EnvVars environment) {
+		return Integer.parseInt(getOption(STALL_DUMP_SECONDS, "0", environment));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseOutputTailKB() {
+		return getOption(OUTPUT_TAIL_KB, "");
+	}
+
+	/**
+	 * @return how many KB of the FitNesse process output to show once it
+	 *         stopped, or -1 if all of it goes to the console as it comes
+	 */
+	public int getFitnesseOutputTailKB(EnvVars environment) {
+		return Integer.parseInt(getOption(OUTPUT_TAIL_KB, "-1", environment));
+	}
+
+	/**
+	 * referenced in config.jelly
+	 */
+	public String getFitnesseOutputPattern() {
+		return getOption(OUTPUT_PATTERN, "");
+	}
+
+	public String getFitnesseOutputPattern(EnvVars environment) {
+		return getOption(OUTPUT_PATTERN, "", environment);
+	}
+
 	/**
 	 * {@link Builder}
 	 */
@@ -283,6 +618,75 @@ public class FitnesseBuilder extends Builder {
 	 */
 	@Extension
 	public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+		private int maxLaunchesPerNode;
+		private String launchLimitsByLabel = "";
+
+		public DescriptorImpl() {
+			load();
+		}
+
+		/**
+		 * referenced in global.jelly
+		 */
+		public int getMaxLaunchesPerNode() {
+			return maxLaunchesPerNode;
+		}
+
+		/**
+		 * referenced in global.jelly
+		 */
+		public String getLaunchLimitsByLabel() {
+			return launchLimitsByLabel == null ? "" : launchLimitsByLabel;
+		}
+
+		/**
+		 * @return how many FitNesse instances builds may start at once on the
+		 *         given node, 0 for no limit
+		 */
+		public int getLaunchLimit(Node node) {
+			List<String> labels = new ArrayList<String>();
+			for (LabelAtom label : node.getAssignedLabels()) {
+				labels.add(label.getName());
+			}
+			return LaunchLimiter.getLimit(labels, getLaunchLimitsByLabel(), maxLaunchesPerNode);
+		}
+
+		@Override
+		public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+			maxLaunchesPerNode = json.optInt("maxLaunchesPerNode", 0);
+			launchLimitsByLabel = json.optString("launchLimitsByLabel", "");
+			save();
+			return true;
+		}
+
+		public FormValidation doCheckMaxLaunchesPerNode(@QueryParameter String value) throws IOException,
+				ServletException {
+			if (value.length() == 0 || value.equals("0"))
+				return FormValidation.ok("Builds may start any number of FitNesse instances on a node at once.");
+			try {
+				if (Integer.parseInt(value) < 0)
+					return FormValidation.error("Launch limit must be a positive integer.");
+			} catch (NumberFormatException e) {
+				return FormValidation.error("Launch limit must be a number.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckLaunchLimitsByLabel(@QueryParameter String value) throws IOException,
+				ServletException {
+			for (String line : value.split("\n")) {
+				if (line.trim().length() == 0)
+					continue;
+				int pos = line.indexOf('=');
+				try {
+					if (pos == -1 || Integer.parseInt(line.substring(pos + 1).trim()) < 0)
+						return FormValidation.error("Expected label=limit but got: " + line);
+				} catch (NumberFormatException e) {
+					return FormValidation.error("Expected label=limit but got: " + line);
+				}
+			}
+			return FormValidation.ok();
+		}
 
 		public FormValidation doCheckFitnesseHost(@QueryParameter String value) throws IOException, ServletException {
 			if (value.length() == 0)
@@ -355,6 +759,66 @@ public class FitnesseBuilder extends Builder {
 			return FormValidation.ok();
 		}
 
+		public FormValidation doCheckFitnesseTargetConcurrency(@QueryParameter String value) throws IOException,
+				ServletException {
+			if (value.length() == 0)
+				return FormValidation.ok("Up to 4 target pages will be executed at once.");
+			try {
+				if (Integer.parseInt(value) < 1)
+					return FormValidation.error("Concurrency must be at least 1.");
+			} catch (NumberFormatException e) {
+				if (!value.startsWith("$"))
+					return FormValidation.error("Concurrency must be a number.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseEndpoints(@QueryParameter String value) throws IOException,
+				ServletException {
+			for (String line : value.split("\n")) {
+				String endpoint = line.trim();
+				if (endpoint.length() == 0 || endpoint.startsWith("$"))
+					continue;
+				try {
+					EndpointQueue.getPort(endpoint, 0);
+				} catch (NumberFormatException e) {
+					return FormValidation.error("Endpoints are host:port, one per line: " + endpoint);
+				}
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseRamDirectory(@QueryParameter String value) throws IOException,
+				ServletException {
+			if (value.length() == 0)
+				return FormValidation.ok("FitNesse will run on FitNesseRoot where it is.");
+			if (!value.startsWith("/") && !value.startsWith("$") && !new File(value).isAbsolute())
+				return FormValidation.warning("The directory should be an absolute path, e.g. /dev/shm");
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseShards(@QueryParameter String value) throws IOException, ServletException {
+			if (value.length() == 0)
+				return FormValidation.ok("The target page will be executed on the node of the build.");
+			try {
+				if (Integer.parseInt(value) < 1)
+					return FormValidation.error("Shards must be at least 1.");
+			} catch (NumberFormatException e) {
+				if (!value.startsWith("$"))
+					return FormValidation.error("Shards must be a number.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseTagLanes(@QueryParameter String value) throws IOException,
+				ServletException {
+			for (String line : value.split("\n")) {
+				if (line.contains("&") || line.contains("?") || line.contains("="))
+					return FormValidation.error("Tag groups are comma separated tags, one group per line: " + line.trim());
+			}
+			return FormValidation.ok();
+		}
+
 		public FormValidation doCheckFitnesseTargetIsSuite(@QueryParameter String value) throws IOException,
 				ServletException {
 			return FormValidation.ok();
@@ -386,6 +850,58 @@ public class FitnesseBuilder extends Builder {
 			return FormValidation.ok();
 		}
 
+		public FormValidation doCheckFitnesseFailFastThreshold(@QueryParameter String value) throws IOException,
+				ServletException {
+			if (value.length() == 0)
+				return FormValidation.ok("All pages will be executed whatever their outcome.");
+			try {
+				if (Integer.parseInt(value) < 0)
+					return FormValidation.error("Fail-fast threshold must be a positive integer.");
+			} catch (NumberFormatException e) {
+				if (!value.startsWith("$"))
+					return FormValidation.error("Fail-fast threshold must be a number.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseStallDumpSeconds(@QueryParameter String value) throws IOException,
+				ServletException {
+			if (value.length() == 0)
+				return FormValidation.ok("No thread dumps will be taken when FitNesse stops sending results.");
+			try {
+				if (Integer.parseInt(value) < 0)
+					return FormValidation.error("Stall period must be a positive integer.");
+			} catch (NumberFormatException e) {
+				if (!value.startsWith("$"))
+					return FormValidation.error("Stall period must be a number.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseOutputTailKB(@QueryParameter String value) throws IOException,
+				ServletException {
+			if (value.length() == 0)
+				return FormValidation.ok("All FitNesse output will go to the console.");
+			try {
+				if (Integer.parseInt(value) < 0)
+					return FormValidation.error("Output tail must be a positive integer.");
+			} catch (NumberFormatException e) {
+				if (!value.startsWith("$"))
+					return FormValidation.error("Output tail must be a number.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckFitnesseOutputPattern(@QueryParameter String value) throws IOException,
+				ServletException {
+			try {
+				Pattern.compile(value);
+			} catch (PatternSyntaxException e) {
+				return FormValidation.error("Not a valid regular expression: " + e.getDescription());
+			}
+			return FormValidation.ok();
+		}
+
 		public FormValidation doCheckFitnessePathToXmlResultsOut(@QueryParameter String value) throws IOException,
 				ServletException {
 			if (value.length() == 0)
@@ -425,12 +941,17 @@ public class FitnesseBuilder extends Builder {
 						startFitnesseValue,
 						collectFormData(formData, new String[] { FITNESSE_JDK, JAVA_OPTS, JAVA_WORKING_DIRECTORY, PATH_TO_JAR,
 								PATH_TO_ROOT, FITNESSE_PORT_LOCAL, TARGET_PAGE, TARGET_IS_SUITE, HTTP_TIMEOUT, TEST_TIMEOUT,
-								PATH_TO_RESULTS, FITNESSE_ADDITIONAL_OPTIONS }));
+								PATH_TO_RESULTS, FITNESSE_ADDITIONAL_OPTIONS, RERUN_FAILED_PAGES, RUN_FAILED_FIRST, RUN_IMPACTED_PAGES,
+								REUSE_RESULTS, SUT_ARTIFACTS, FAIL_FAST_THRESHOLD, OUTPUT_TAIL_KB, OUTPUT_PATTERN,
+								AUTO_PORT, EMBEDDED, COMMAND_MODE, CDS_ARCHIVE, TARGET_CONCURRENCY,
+								TAG_LANES, SHARDS, SHARD_LABEL, ROOT_SNAPSHOT,
+								RAM_DIRECTORY, JAR_CACHE, STALL_DUMP_SECONDS }));
 			}
 			return newFitnesseBuilder(
 					startFitnesseValue,
 					collectFormData(formData, new String[] { FITNESSE_HOST, FITNESSE_PORT_REMOTE, FITNESSE_ENABLE_SSL, TARGET_PAGE, TARGET_IS_SUITE,
-							HTTP_TIMEOUT, TEST_TIMEOUT, PATH_TO_RESULTS }));
+							HTTP_TIMEOUT, TEST_TIMEOUT, PATH_TO_RESULTS, RERUN_FAILED_PAGES, RUN_FAILED_FIRST, RUN_IMPACTED_PAGES,
+							FAIL_FAST_THRESHOLD, TARGET_CONCURRENCY, TAG_LANES, ENDPOINTS, STALL_DUMP_SECONDS }));
 		}
 
 		private FitnesseBuilder newFitnesseBuilder(String startFitnesseValue, Map<String, String> collectedFormData) {
@@ -0,0 +1,134 @@
+package hudson.plugins.fitnesse;
+
+import hudson.model.InvisibleAction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records how {@link FitnesseExecutor} went about executing the tests of a
+ * build, e.g. the key its inputs were cached under and whether results were
+ * reused, so that it can be shown on the build page and consulted by later
+ * builds.
+ */
+public class FitnesseExecutionAction extends InvisibleAction {
+
+	private String cacheKey;
+	private long launchWaitMillis;
+	private long startupMillis;
+	private long executionMillis;
+	private long shutdownMillis;
+	private int stalls;
+	private boolean partialResults;
+	private final List<String> notes = new ArrayList<String>();
+	private final Map<String, String> pageEndpoints = new HashMap<String, String>();
+
+	public String getCacheKey() {
+		return cacheKey;
+	}
+
+	public void setCacheKey(String cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+
+	/**
+	 * @return how long the build waited before it could start FitNesse on its
+	 *         node
+	 */
+	public long getLaunchWaitMillis() {
+		return launchWaitMillis;
+	}
+
+	public void setLaunchWaitMillis(long launchWaitMillis) {
+		this.launchWaitMillis = launchWaitMillis;
+	}
+
+	/**
+	 * @return how long the FitNesse instance started by the build took to
+	 *         answer, 0 if the build didn't start one
+	 */
+	public long getStartupMillis() {
+		return startupMillis;
+	}
+
+	public void setStartupMillis(long startupMillis) {
+		this.startupMillis = startupMillis;
+	}
+
+	/**
+	 * @return how long executing the tests took, from the first request to the
+	 *         last results received
+	 */
+	public long getExecutionMillis() {
+		return executionMillis;
+	}
+
+	public void setExecutionMillis(long executionMillis) {
+		this.executionMillis = executionMillis;
+	}
+
+	/**
+	 * @return how long stopping the FitNesse instance started by the build
+	 *         took, 0 if the build didn't start one
+	 */
+	public long getShutdownMillis() {
+		return shutdownMillis;
+	}
+
+	public void setShutdownMillis(long shutdownMillis) {
+		this.shutdownMillis = shutdownMillis;
+	}
+
+	/**
+	 * @return true if the results of some pages are missing, e.g. because the
+	 *         test timeout fired, the fail-fast threshold was reached or
+	 *         results were cut off, so that they can't be reused
+	 */
+	public boolean hasPartialResults() {
+		return partialResults;
+	}
+
+	public void setPartialResults(boolean partialResults) {
+		this.partialResults = partialResults;
+	}
+
+	/**
+	 * @return how many times FitNesse stopped sending results for longer than
+	 *         the stall period
+	 */
+	public synchronized int getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * @return the number of the stall just noticed, counting from 1
+	 */
+	public synchronized int nextStall() {
+		return ++stalls;
+	}
+
+	/**
+	 * @return the <tt>host:port</tt> of the FitNesse server of the farm that
+	 *         executed the given page, or null if it wasn't executed by a farm
+	 */
+	public synchronized String getPageEndpoint(String page) {
+		return pageEndpoints == null ? null : pageEndpoints.get(page); // null in builds recorded before
+	}
+
+	public synchronized void setPageEndpoint(String page, String endpoint) {
+		pageEndpoints.put(page, endpoint);
+	}
+
+	/**
+	 * referenced in summary.jelly
+	 */
+	public synchronized List<String> getNotes() {
+		return new ArrayList<String>(notes);
+	}
+
+	public synchronized void addNote(String note) {
+		notes.add(note);
+	}
+}
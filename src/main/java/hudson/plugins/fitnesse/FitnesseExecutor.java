@@ -5,10 +5,14 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
 import hudson.Proc;
+import hudson.Util;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 import hudson.model.Computer;
 import hudson.model.JDK;
+import hudson.model.Node;
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+import hudson.plugins.fitnesse.StreamingResultsParser.PageListener;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -18,10 +22,24 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,11 +53,46 @@ public class FitnesseExecutor {
 	private static final int SLEEP_MILLIS = 1000;
 	private static final int STARTUP_TIMEOUT_MILLIS = 30 * 1000;
 	private static final int READ_PAGE_TIMEOUT = 10 * 1000;
+	private static final int RECENT_BUILDS = 5;
+	private static final int CLOSE_RESULTS_TIMEOUT_MILLIS = 10 * 1000;
+	/** How long FitNesse gets to shut down when asked to before it is killed */
+	private static final int SHUTDOWN_TIMEOUT_MILLIS = 10 * 1000;
+	/** How many times pages whose results were cut off are requested again */
+	private static final int MISSING_PAGES_RETRIES = 1;
+	/** How many partitions of a suite each server of a farm executes */
+	private static final int PARTITIONS_PER_ENDPOINT = 4;
+	/** How many servers of a farm a partition is attempted on */
+	private static final int ENDPOINT_ATTEMPTS = 2;
 
 	private final FitnesseBuilder builder;
 	private final EnvVars envVars;
 	private final PrintStream logger;
 	private final BuildListener listener;
+	private final Set<HttpURLConnection> openConnections = Collections
+			.synchronizedSet(new HashSet<HttpURLConnection>());
+	private volatile boolean downloadsCancelled;
+	private int allocatedPort = -1;
+	private Boolean cdsArchiveExisted;
+	/** Where FitNesse dumps its class data archive when it stops, if it does */
+	private FilePath cdsDump;
+	/** The node FitNesse runs on when it isn't the node of the build */
+	private Node node;
+	/** The server of the farm this executor executes pages on */
+	private String endpoint;
+	private volatile int completedPages;
+	/** Set when FitNesse in command mode reported failures, which no progress counts */
+	private boolean commandFailed;
+	/**
+	 * The actions this executor added to the build, kept rather than looked up
+	 * as each FitNesse step of a build adds actions of its own
+	 */
+	private FitnesseExecutionAction executionAction;
+	private FitnesseProgressAction progressAction;
+	/** The snapshot of FitNesseRoot FitNesse runs on, if any */
+	private FilePath rootSnapshot;
+	private FilePath rootOfSnapshot;
+	/** The launch permit of the instance started for {@link FitnesseBuildWrapper} */
+	private Semaphore instancePermit;
 
 	public FitnesseExecutor(FitnesseBuilder builder, BuildListener listener, EnvVars envVars) {
 		this.builder = builder;
@@ -50,40 +103,775 @@ public class FitnesseExecutor {
 
 	public boolean execute(Launcher launcher, AbstractBuild<?, ?> build) throws InterruptedException {
 		Proc fitnesseProc = null;
+		FilePath outputDirectory = null;
+		Semaphore launchPermit = null;
+		boolean executed = false;
+		FitnesseProgressAction progress = null;
+		FitnesseExecutionAction executionAction = new FitnesseExecutionAction();
+		this.executionAction = executionAction;
 		try {
+			if (builder.getFitnesseStart() && builder.getFitnesseAutoPort())
+				allocatePort(launcher);
 			build.addAction(getFitnesseBuildAction(build));
+			build.addAction(executionAction);
+			AbstractBuild<?, ?> previousBuild = getPreviousBuildWithResults(build);
+			progress = new FitnesseProgressAction(build, previousBuild == null ? null : previousBuild.getAction(
+					FitnesseResultsAction.class).getResult());
+			build.addAction(progress);
+			progressAction = progress;
 			FilePath workingDirectory = getWorkingDirectory(logger, build);
+			deleteStaleResults(workingDirectory);
+			if (builder.getFitnesseStart() && builder.getFitnesseReuseResults()
+					&& reuseResults(build, workingDirectory, executionAction)) {
+				return true;
+			}
+			FilePath resultsFilePath = getFilePath(logger, workingDirectory, builder.getFitnessePathToXmlResultsOut(envVars));
+			if (!builder.getFitnesseStart() && !builder.getFitnesseEndpoints(envVars).isEmpty()) {
+				executeOnEndpoints(build, workingDirectory);
+				executed = true;
+				return true;
+			}
+			if (!builder.getFitnesseStart() && !awaitWrappedInstance(build)) {
+				return false;
+			}
+			if (builder.getFitnesseStart() && builder.getFitnesseShards(envVars) > 1) {
+				executeShards(build, workingDirectory);
+				executed = true;
+				return true;
+			}
 			if (builder.getFitnesseStart()) {
-				fitnesseProc = startFitnesse(workingDirectory, launcher);
+				launchPermit = waitForLaunch(build.getBuiltOn(), executionAction);
+				if (builder.getFitnesseRootSnapshot() || !builder.getFitnesseRamDirectory(envVars).isEmpty())
+					createRootSnapshot(build, workingDirectory, executionAction);
+				if (builder.getFitnesseEmbedded()) {
+					executeEmbedded(launcher, workingDirectory, resultsFilePath);
+					executed = true;
+					return true;
+				}
+				outputDirectory = getOutputDirectory(build, workingDirectory);
+				if (builder.getFitnesseCommandMode()) {
+					fitnesseProc = startFitnesseCommand(workingDirectory, launcher, resultsFilePath, outputDirectory);
+					executeCommand(fitnesseProc, resultsFilePath);
+					executed = true;
+					return true;
+				}
+				long startMillis = System.currentTimeMillis();
+				fitnesseProc = startFitnesse(workingDirectory, launcher, outputDirectory);
 				if (!fitnesseProc.isAlive() || !isFitnesseStarted(getFitnessePage(build, false))) {
 					return false;
 				}
+				recordStartup(executionAction, System.currentTimeMillis() - startMillis);
 			}
 
-			FilePath resultsFilePath = getFilePath(logger, workingDirectory, builder.getFitnessePathToXmlResultsOut(envVars));
-			readAndWriteFitnesseResults(getFitnessePage(build, true), resultsFilePath);
+			List<String> targetPages = builder.getFitnesseLaneTargetPages(envVars);
+			long executionStartMillis = System.currentTimeMillis();
+			if (targetPages.size() > 1)
+				executeTargets(build, workingDirectory, targetPages);
+			else
+				executeTarget(build, workingDirectory, resultsFilePath);
+			executionAction.setExecutionMillis(System.currentTimeMillis() - executionStartMillis);
+			if (rootSnapshot != null)
+				executionAction.addNote("Tests executed in " + executionAction.getExecutionMillis() + "ms");
+			executed = true;
 			return true;
+		} catch (RunnerWithTimeOut.TimeOutException e) {
+			logger.println("FitNesse tests timed out: " + e.getMessage());
+			executionAction.setPartialResults(true);
+			executionAction.addNote("Timed out after " + builder.getFitnesseTestTimeout(envVars) + "ms, "
+					+ getTimeOutConsequence());
+			return false;
 		} catch (Throwable t) {
 			t.printStackTrace(logger);
 			if (t instanceof InterruptedException)
 				throw (InterruptedException) t;
 			return false;
 		} finally {
-			killProc(fitnesseProc);
+			if (fitnesseProc != null)
+				executionAction.setShutdownMillis(stopFitnesse(build, fitnesseProc, !builder.getFitnesseCommandMode()));
+			if (rootSnapshot != null)
+				removeRootSnapshot(executionAction);
+			if (launchPermit != null)
+				launchPermit.release();
+			releasePort(launcher);
+			if (outputDirectory != null)
+				closeOutputCapture(build, (ProcessOutputCapture.CapturedProc) fitnesseProc, outputDirectory, executed
+						&& !commandFailed && progress.getFailedPages() == 0);
+			if (progress != null)
+				progress.finished();
+		}
+	}
+
+	/**
+	 * @return what became of the results when the tests timed out, depending
+	 *         on how they were executed
+	 */
+	private String getTimeOutConsequence() {
+		if (builder.getFitnesseStart() && builder.getFitnesseShards(envVars) > 1)
+			return "the shard that timed out was killed, the results of the shards completed so far were kept";
+		if (builder.getFitnesseStart() && builder.getFitnesseEmbedded())
+			return "FitNesse was stopped in-process before writing any results";
+		if (builder.getFitnesseStart() && builder.getFitnesseCommandMode())
+			return "FitNesse in command mode was killed before writing any results";
+		return "no results were received for that long, the results of the pages completed so far were kept";
+	}
+
+	/**
+	 * Writes the results of an earlier build with the same inputs to the
+	 * results file, if there is one.
+	 *
+	 * @return true if results were reused
+	 */
+	private boolean reuseResults(AbstractBuild<?, ?> build, FilePath workingDirectory,
+			FitnesseExecutionAction executionAction) throws IOException, InterruptedException {
+		String cacheKey = ResultsCache.getKey(getFilePath(workingDirectory, builder.getFitnessePathToJar(envVars)),
+				getFitnesseRoot(workingDirectory), workingDirectory, builder.getFitnesseSutArtifacts(envVars),
+				builder.getFitnesseTargetPage(envVars), builder.getFitnesseTargetIsSuite());
+		executionAction.setCacheKey(cacheKey);
+		AbstractBuild<?, ?> cachedBuild = ResultsCache.getBuildWithKey(build, cacheKey, RECENT_BUILDS);
+		if (cachedBuild == null) {
+			logger.println("Inputs changed since recent builds (" + cacheKey + "), executing tests");
+			return false;
+		}
+		FilePath resultsFilePath = getFilePath(logger, workingDirectory, builder.getFitnessePathToXmlResultsOut(envVars));
+		int pages = ResultsCache.writeResults(cachedBuild, resultsFilePath, builder.getFitnesseTargetPage(envVars));
+		logger.printf("Inputs unchanged since build #%d, reused the results of its %d pages%n", cachedBuild.getNumber(),
+				pages);
+		build.addAction(new FitnesseMergeAction(cachedBuild.getNumber(), FitnesseResults.REUSED, FitnesseResults.REUSED,
+				Collections.<String> emptyList(), resultsFilePath.getName()));
+		executionAction.addNote("Inputs unchanged since build #" + cachedBuild.getNumber() + ", its results were reused");
+		return true;
+	}
+
+	/**
+	 * Executes the target page, or only some of its pages, or its pages in
+	 * priority order, as configured.
+	 */
+	private void executeTarget(AbstractBuild<?, ?> build, FilePath workingDirectory, FilePath resultsFilePath)
+			throws IOException, InterruptedException {
+		if (builder.getFitnesseRerunFailedPages() && !builder.getFitnesseTargetIsSuite()) {
+			logger.println("Failed pages can only be rerun for a target suite, executing "
+					+ builder.getFitnesseTargetPage(envVars));
+		} else if (builder.getFitnesseRerunFailedPages()) {
+			AbstractBuild<?, ?> previousBuild = getPreviousBuildWithResults(build);
+			List<String> failedPages = getFailedPages(previousBuild);
+			if (!failedPages.isEmpty()) {
+				logger.printf("Rerunning %d pages that failed in build #%d%n", failedPages.size(), previousBuild.getNumber());
+				readAndWritePageResults(build, failedPages, resultsFilePath);
+				build.addAction(new FitnesseMergeAction(previousBuild.getNumber(), FitnesseResults.RERUN, null,
+						Collections.<String> emptyList(), resultsFilePath.getName()));
+				return;
+			}
+			logger.println("No failed pages to rerun, executing " + builder.getFitnesseTargetPage(envVars));
+		}
+		Map<String, Long> pages = Collections.emptyMap();
+		if (builder.getFitnesseRunImpactedPages() || builder.getFitnesseRunFailedFirst())
+			pages = getSuitePages(workingDirectory);
+		if (builder.getFitnesseRunImpactedPages() && !pages.isEmpty()) {
+			AbstractBuild<?, ?> baselineBuild = PageHashes.getBaselineBuild(build);
+			Map<String, String> hashes = getFitnesseRoot(workingDirectory).act(new PageHashes.HashPages());
+			PageHashes.save(build.getRootDir(), hashes);
+			if (baselineBuild != null) {
+				Set<String> changedPages = PageHashes.getChangedPages(PageHashes.load(baselineBuild.getRootDir()), hashes);
+				Set<String> impactedPages = PageHashes.getImpactedTests(changedPages, pages.keySet());
+				pages.keySet().retainAll(impactedPages);
+				logger.printf("%d pages changed since build #%d, executing the %d test pages they affect%n",
+						changedPages.size(), baselineBuild.getNumber(), pages.size());
+				List<String> removedPages = new ArrayList<String>(changedPages);
+				removedPages.removeAll(hashes.keySet());
+				build.addAction(new FitnesseMergeAction(baselineBuild.getNumber(), null, FitnesseResults.CARRIED_FORWARD,
+						removedPages, resultsFilePath.getName()));
+				readAndWritePageResults(build, getOrderedPages(build, pages), resultsFilePath);
+				return;
+			}
+			logger.println("No earlier build with page hashes, executing all pages of "
+					+ builder.getFitnesseTargetPage(envVars));
+		}
+		if (builder.getFitnesseRunFailedFirst() && !pages.isEmpty()) {
+			logger.printf("Executing %d pages, recently failed and changed pages first%n", pages.size());
+			readAndWritePageResults(build, getOrderedPages(build, pages), resultsFilePath);
+			return;
+		}
+		checkResultsReceived(readAndWriteStreamedResults(build, null, resultsFilePath), resultsFilePath);
+	}
+
+	/**
+	 * Fails when FitNesse answered with no results at all, e.g. refused the
+	 * connection or answered with an error page, so that the build doesn't
+	 * pass without executing a single test.
+	 *
+	 * @param complete
+	 *          what executing the pages returned
+	 */
+	private static void checkResultsReceived(boolean complete, FilePath resultsFile) throws IOException,
+			InterruptedException {
+		if (!complete && !resultsFile.exists())
+			throw new IOException("No results received from FitNesse, " + resultsFile.getRemote() + " was not written");
+	}
+
+	/**
+	 * Executes several target pages against the same FitNesse instance, at most
+	 * the configured number of them at once, each into a results file of its
+	 * own. Pages are not selected then, every target is executed whole.
+	 */
+	private void executeTargets(final AbstractBuild<?, ?> build, FilePath workingDirectory, List<String> targetPages)
+			throws IOException, InterruptedException {
+		int concurrency = Math.max(1, Math.min(targetPages.size(), builder.getFitnesseTargetConcurrency(envVars)));
+		logger.printf("Executing %d target pages, %d at a time%n", targetPages.size(), concurrency);
+		if (builder.getFitnesseRerunFailedPages() || builder.getFitnesseRunImpactedPages()
+				|| builder.getFitnesseRunFailedFirst())
+			logger.println("Pages can only be selected for a single target page, executing all pages of every target");
+		String pathToResults = builder.getFitnessePathToXmlResultsOut(envVars);
+		List<FitnesseExecutor> targetExecutors = new ArrayList<FitnesseExecutor>();
+		List<Future<Void>> executions = new ArrayList<Future<Void>>();
+		ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+		for (String targetPage : targetPages) {
+			final FitnesseExecutor targetExecutor = forTarget(targetPage, getTargetResultsPath(pathToResults, targetPage));
+			final FilePath targetResultsFilePath = getFilePath(workingDirectory,
+					targetExecutor.builder.getFitnessePathToXmlResultsOut(envVars));
+			targetExecutors.add(targetExecutor);
+			executions.add(pool.submit(new Callable<Void>() {
+				public Void call() throws IOException, InterruptedException {
+					checkResultsReceived(targetExecutor.readAndWriteStreamedResults(build, null, targetResultsFilePath),
+							targetResultsFilePath);
+					return null;
+				}
+			}));
+		}
+		awaitAll(pool, executions, targetExecutors);
+	}
+
+	/**
+	 * Splits each target suite into the configured number of partitions and
+	 * executes every partition with FitNesse in command mode on one of the
+	 * online nodes with the shard label, in a copy of the workspace there.
+	 * The results file of each shard is copied back into the workspace next
+	 * to the results file, like those of several target pages.
+	 */
+	private void executeShards(final AbstractBuild<?, ?> build, final FilePath workingDirectory) throws IOException,
+			InterruptedException {
+		int shards = builder.getFitnesseShards(envVars);
+		String label = builder.getFitnesseShardLabel(envVars);
+		List<Node> nodes = Shards.getOnlineNodes(label);
+		if (nodes.isEmpty())
+			throw new IOException("No online node labelled '" + label + "' to execute shards on");
+		List<String> targetPages = builder.getFitnesseLaneTargetPages(envVars);
+		logger.printf("Executing %d target pages in %d shards each on %d nodes labelled %s%n", targetPages.size(),
+				shards, nodes.size(), label);
+		String pathToResults = builder.getFitnessePathToXmlResultsOut(envVars);
+		List<FitnesseExecutor> shardExecutors = new ArrayList<FitnesseExecutor>();
+		List<Future<Void>> executions = new ArrayList<Future<Void>>();
+		final Shards.Copies copies = new Shards.Copies();
+		ExecutorService pool = Executors.newFixedThreadPool(targetPages.size() * shards);
+		for (String targetPage : targetPages) {
+			List<Node> assignedNodes = Shards.assign(nodes, shards);
+			for (int shard = 0; shard < shards; ++shard) {
+				String shardTargetPage = Shards.getShardTargetPage(targetPage, shards, shard);
+				final FitnesseExecutor shardExecutor = forTarget(shardTargetPage,
+						getTargetResultsPath(pathToResults, shardTargetPage));
+				shardExecutor.node = assignedNodes.get(shard);
+				final FilePath shardResultsFilePath = getFilePath(workingDirectory,
+						shardExecutor.builder.getFitnessePathToXmlResultsOut(envVars));
+				shardExecutors.add(shardExecutor);
+				executions.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException, InterruptedException {
+						shardExecutor.executeShard(build, workingDirectory, shardResultsFilePath, copies);
+						return null;
+					}
+				}));
+			}
+		}
+		try {
+			awaitAll(pool, executions, shardExecutors);
+		} finally {
+			for (Node node : nodes) {
+				FilePath shardDirectory = getShardDirectory(build, node);
+				try {
+					shardDirectory.deleteRecursive();
+				} catch (IOException e) {
+					logger.println("Could not delete " + shardDirectory.getRemote() + ": " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the copy of the workspace the shards of the build execute in on
+	 *         the given node
+	 */
+	private static FilePath getShardDirectory(AbstractBuild<?, ?> build, Node node) {
+		return node.getRootPath().child(Shards.DIR)
+				.child(build.getParent().getFullName().replace('/', '_') + "-" + build.getNumber());
+	}
+
+	/**
+	 * Executes the target page in the copy of the workspace on the node of
+	 * this executor, once the node has a FitNesse launch left, and copies its
+	 * results file back to the given one.
+	 */
+	private void executeShard(AbstractBuild<?, ?> build, final FilePath workingDirectory, FilePath resultsFile,
+			Shards.Copies copies) throws IOException, InterruptedException {
+		final FilePath shardDirectory = getShardDirectory(build, node);
+		copies.await(node.getNodeName(), new Callable<Void>() {
+			public Void call() throws IOException, InterruptedException {
+				copyForShards(workingDirectory, shardDirectory);
+				return null;
+			}
+		});
+		Semaphore launchPermit = waitForLaunch(node, executionAction);
+		try {
+			FilePath shardResultsFile = shardDirectory.child(resultsFile.getName());
+			executeCommand(startFitnesseCommand(shardDirectory, node.createLauncher(listener), shardResultsFile, null),
+					shardResultsFile);
+			shardResultsFile.copyTo(resultsFile);
+		} finally {
+			if (launchPermit != null)
+				launchPermit.release();
+		}
+	}
+
+	/**
+	 * Copies FitNesseRoot, fitnesse.jar and the artifacts of the system under
+	 * test into the given directory, see {@link Shards#getCopyIncludes}.
+	 */
+	private void copyForShards(FilePath workingDirectory, FilePath shardDirectory) throws IOException,
+			InterruptedException {
+		String includes = Shards.getCopyIncludes(builder.getFitnessePathToRoot(envVars), builder.getFitnessePathToJar(envVars),
+				builder.getFitnesseSutArtifacts(envVars));
+		long startMillis = System.currentTimeMillis();
+		shardDirectory.deleteRecursive();
+		int files = includes.isEmpty() ? 0 : workingDirectory.copyRecursiveTo(includes, shardDirectory);
+		String javaWorkingDirectory = builder.getFitnesseJavaWorkingDirectory();
+		if (Shards.isRelative(javaWorkingDirectory))
+			shardDirectory.child(javaWorkingDirectory).mkdirs();
+		else
+			shardDirectory.mkdirs();
+		logger.printf("Copied %d files (%s) to %s:%s in %dms%n", files, includes, node.getDisplayName(),
+				shardDirectory.getRemote(), System.currentTimeMillis() - startMillis);
+	}
+
+	/**
+	 * Executes the target pages on the farm of FitNesse servers, splitting
+	 * target suites into partitions the servers take from a shared queue, see
+	 * {@link EndpointQueue}.
+	 */
+	private void executeOnEndpoints(final AbstractBuild<?, ?> build, final FilePath workingDirectory)
+			throws IOException, InterruptedException {
+		List<String> endpoints = new ArrayList<String>();
+		for (String endpoint : builder.getFitnesseEndpoints(envVars)) {
+			if (forEndpoint(endpoint).isResponding(build))
+				endpoints.add(endpoint);
+			else
+				logger.println("FitNesse server " + endpoint + " does not answer, leaving it out");
+		}
+		if (endpoints.isEmpty())
+			throw new IOException("None of the FitNesse servers " + builder.getFitnesseEndpoints(envVars) + " answers");
+		List<String> pages = new ArrayList<String>();
+		int partitions = endpoints.size() * PARTITIONS_PER_ENDPOINT;
+		for (String targetPage : builder.getFitnesseLaneTargetPages(envVars)) {
+			if (!builder.getFitnesseTargetIsSuite()) {
+				pages.add(targetPage);
+				continue;
+			}
+			for (int partition = 0; partition < partitions; ++partition) {
+				pages.add(Shards.getShardTargetPage(targetPage, partitions, partition));
+			}
+		}
+		logger.printf("Executing %d pages on %d FitNesse servers%n", pages.size(), endpoints.size());
+		final EndpointQueue queue = new EndpointQueue(pages, endpoints, ENDPOINT_ATTEMPTS);
+		final String pathToResults = builder.getFitnessePathToXmlResultsOut(envVars);
+		List<FitnesseExecutor> endpointExecutors = new ArrayList<FitnesseExecutor>();
+		List<Future<Void>> executions = new ArrayList<Future<Void>>();
+		ExecutorService pool = Executors.newFixedThreadPool(endpoints.size());
+		for (String endpoint : endpoints) {
+			final FitnesseExecutor endpointExecutor = forEndpoint(endpoint);
+			endpointExecutors.add(endpointExecutor);
+			executions.add(pool.submit(new Callable<Void>() {
+				public Void call() throws IOException, InterruptedException {
+					endpointExecutor.executeQueuedPages(build, workingDirectory, queue, pathToResults);
+					return null;
+				}
+			}));
+		}
+		awaitAll(pool, executions, endpointExecutors);
+		List<String> remaining = queue.getRemaining();
+		if (!remaining.isEmpty()) {
+			executionAction.setPartialResults(true);
+			executionAction.addNote(
+					"No FitNesse server was left to execute " + remaining.size() + " pages: " + remaining);
+		}
+	}
+
+	/**
+	 * Executes pages taken from the queue on the server of this executor
+	 * until none are left or the server stops answering.
+	 */
+	private void executeQueuedPages(AbstractBuild<?, ?> build, FilePath workingDirectory, EndpointQueue queue,
+			String pathToResults) throws IOException, InterruptedException {
+		long startMillis = System.currentTimeMillis();
+		int executed = 0;
+		int pages = 0;
+		String page;
+		try {
+			while ((page = queue.take(endpoint)) != null) {
+				FitnesseExecutor pageExecutor = forTarget(page, getTargetResultsPath(pathToResults, page));
+				FilePath resultsFilePath = getFilePath(workingDirectory,
+						pageExecutor.builder.getFitnessePathToXmlResultsOut(envVars));
+				boolean complete = false;
+				try {
+					complete = pageExecutor.readAndWriteStreamedResults(build, null, resultsFilePath);
+				} catch (RunnerWithTimeOut.TimeOutException e) {
+					logger.println(endpoint + " timed out executing " + page);
+				} finally {
+					if (complete) {
+						queue.done(page);
+						++executed;
+						pages += pageExecutor.completedPages;
+					} else if (queue.retry(page, endpoint)) {
+						logger.println("Results of " + page + " from " + endpoint + " were cut off, putting it back");
+						resultsFilePath.delete();
+					} else {
+						executionAction.setPartialResults(true);
+						executionAction.addNote(
+								"Results of " + page + " were cut off on every attempt, the last one on " + endpoint);
+					}
+				}
+				if (!complete && !isResponding(build)) {
+					executionAction.addNote(
+							"FitNesse server " + endpoint + " stopped answering and was left out");
+					break;
+				}
+			}
+		} finally {
+			queue.leave(endpoint);
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - startMillis);
+		executionAction.addNote(
+				String.format("FitNesse server %s executed %d pages of %d partitions in %d s (%d pages/min)", endpoint,
+						pages, executed, elapsed / 1000, pages * 60 * 1000L / elapsed));
+	}
+
+	/**
+	 * @return an executor of the target page on the server of the farm at the
+	 *         given <tt>host:port</tt>
+	 */
+	private FitnesseExecutor forEndpoint(String endpoint) {
+		FitnesseExecutor endpointExecutor = new FitnesseExecutor(builder.forEndpoint(EndpointQueue.getHost(endpoint),
+				EndpointQueue.getPort(endpoint, builder.getFitnessePort(envVars))), listener, envVars);
+		endpointExecutor.endpoint = endpoint;
+		endpointExecutor.executionAction = executionAction;
+		endpointExecutor.progressAction = progressAction;
+		return endpointExecutor;
+	}
+
+	/**
+	 * @return true if the FitNesse server of this executor answers its front
+	 *         page
+	 */
+	private boolean isResponding(AbstractBuild<?, ?> build) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) getFitnesseUrl(build, "/").openConnection();
+			connection.setConnectTimeout(READ_PAGE_TIMEOUT);
+			connection.setReadTimeout(READ_PAGE_TIMEOUT);
+			return connection.getResponseCode() == 200;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (connection != null)
+				connection.disconnect();
 		}
 	}
 
+	/**
+	 * Waits for all given executions, stopping the downloads of the given
+	 * executors when the build is aborted or one of them timed out.
+	 */
+	private static void awaitAll(ExecutorService pool, List<Future<Void>> executions,
+			List<FitnesseExecutor> executors) throws IOException, InterruptedException {
+		try {
+			for (Future<Void> execution : executions) {
+				try {
+					execution.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof InterruptedException)
+						throw (InterruptedException) e.getCause();
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException("Executing a target page failed", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			for (FitnesseExecutor executor : executors) {
+				executor.cancelDownloads();
+			}
+			throw e;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return an executor of the given target page against the FitNesse
+	 *         instance of this one
+	 */
+	private FitnesseExecutor forTarget(String targetPage, String pathToResults) {
+		FitnesseExecutor targetExecutor = new FitnesseExecutor(builder.forTarget(targetPage, pathToResults), listener,
+				envVars);
+		targetExecutor.allocatedPort = allocatedPort;
+		targetExecutor.node = node;
+		targetExecutor.endpoint = endpoint;
+		targetExecutor.executionAction = executionAction;
+		targetExecutor.progressAction = progressAction;
+		return targetExecutor;
+	}
+
+	/**
+	 * Deletes the results files earlier builds left in the workspace, the
+	 * configured one and those of several target pages next to it, so that
+	 * only the files written by this build are recorded.
+	 */
+	private void deleteStaleResults(FilePath workingDirectory) throws IOException, InterruptedException {
+		FilePath resultsFile = getFilePath(workingDirectory, builder.getFitnessePathToXmlResultsOut(envVars));
+		resultsFile.delete();
+		FilePath resultsDirectory = resultsFile.getParent();
+		if (resultsDirectory == null || !resultsDirectory.isDirectory())
+			return;
+		for (FilePath staleResults : resultsDirectory.list(getTargetResultsPath(resultsFile.getName(), "*")))
+			staleResults.delete();
+	}
+
+	/**
+	 * @return the results file of one of several target pages, named after the
+	 *         results file of the builder and the target page, e.g.
+	 *         <tt>fitnesse-results-SuiteA.xml</tt>
+	 */
+	static String getTargetResultsPath(String pathToResults, String targetPage) {
+		String suffix = "-" + targetPage.replaceAll("[^A-Za-z0-9.*-]+", "_");
+		int pos = pathToResults.length() - 4;
+		if (pathToResults.toLowerCase().endsWith(".xml"))
+			return pathToResults.substring(0, pos) + suffix + pathToResults.substring(pos);
+		return pathToResults + suffix;
+	}
+
+	/**
+	 * @return the test pages of the target suite with the time they were last
+	 *         modified, or an empty map if they can't be listed
+	 */
+	private Map<String, Long> getSuitePages(FilePath workingDirectory) throws IOException, InterruptedException {
+		String targetPage = builder.getFitnesseTargetPage(envVars);
+		if (!builder.getFitnesseStart() || !builder.getFitnesseTargetIsSuite() || targetPage.contains("?")
+				|| targetPage.contains("&")) {
+			logger.println("Pages can only be selected for a plain suite executed by a FitNesse instance started by the build");
+			return Collections.emptyMap();
+		}
+		FilePath fitnesseRoot = getFitnesseRoot(workingDirectory);
+		Map<String, Long> pages = SuitePages.list(fitnesseRoot, targetPage);
+		if (pages.isEmpty())
+			logger.println("No test pages found below " + targetPage + " in " + fitnesseRoot.getRemote());
+		return pages;
+	}
+
+	/**
+	 * @return the given pages, those that failed in recent builds first and
+	 *         those changed since the previous build next if so configured
+	 */
+	private List<String> getOrderedPages(AbstractBuild<?, ?> build, Map<String, Long> pages) {
+		if (!builder.getFitnesseRunFailedFirst())
+			return new ArrayList<String>(pages.keySet());
+		AbstractBuild<?, ?> previousBuild = build.getPreviousBuild();
+		long changedSince = previousBuild == null ? Long.MAX_VALUE : previousBuild.getStartTimeInMillis();
+		Collection<String> recentlyFailed = SuitePages.getRecentlyFailedPages(getPreviousBuildWithResults(build),
+				RECENT_BUILDS);
+		return SuitePages.prioritize(pages, recentlyFailed, changedSince);
+	}
+
+	private FilePath getFitnesseRoot(FilePath workingDirectory) {
+		return getFilePath(workingDirectory, builder.getFitnessePathToRoot(envVars));
+	}
+
 	private FitnesseBuildAction getFitnesseBuildAction(AbstractBuild<?, ?> build) throws IOException {
 		return new FitnesseBuildAction(builder.getFitnesseStart(), builder.getFitnesseHost(build, envVars),
-				builder.getFitnessePort(envVars), builder.getFitnesseSsl());
+				getFitnessePort(), builder.getFitnesseSsl());
 	}
 
-	private Proc startFitnesse(FilePath workingDirectory, Launcher launcher) throws IOException, InterruptedException {
+	/**
+	 * Starts FitNesse for {@link FitnesseBuildWrapper}, which stops it with
+	 * {@link #stopInstance(Launcher, AbstractBuild, Proc)} at the end of the
+	 * build. The instance counts towards the launches allowed at once on the
+	 * node until it stopped.
+	 */
+	Proc startInstance(Launcher launcher, AbstractBuild<?, ?> build) throws IOException, InterruptedException {
+		instancePermit = waitForLaunch(build.getBuiltOn(), null);
+		if (builder.getFitnesseAutoPort())
+			allocatePort(launcher);
+		return startFitnesse(getWorkingDirectory(logger, build), launcher, null);
+	}
+
+	void stopInstance(Launcher launcher, AbstractBuild<?, ?> build, Proc proc) {
+		try {
+			if (proc != null)
+				stopFitnesse(build, proc, true);
+			releasePort(launcher);
+		} finally {
+			if (instancePermit != null)
+				instancePermit.release();
+			instancePermit = null;
+		}
+	}
+
+	/**
+	 * Waits for a FitNesse instance started by {@link FitnesseBuildWrapper}
+	 * to answer, if there is one and it is the one this step uses.
+	 *
+	 * @return false if it didn't come up
+	 */
+	private boolean awaitWrappedInstance(AbstractBuild<?, ?> build) throws InterruptedException {
+		FitnesseInstanceAction instance = build.getAction(FitnesseInstanceAction.class);
+		if (instance == null || !instance.isAt(builder.getFitnesseHost(build, envVars), getFitnessePort()))
+			return true;
+		if (!instance.isReady())
+			logger.println("Waiting for the FitNesse instance started with the build on port " + instance.getPort());
+		if (instance.awaitReady())
+			return true;
+		logger.println("The FitNesse instance started with the build did not come up");
+		return false;
+	}
+
+	/**
+	 * Waits until fewer FitNesse instances than the limit configured for the
+	 * node are running there.
+	 *
+	 * @param executionAction
+	 *          reports the wait, may be null
+	 * @return the permit to release once FitNesse stopped, or null if the node
+	 *         is not limited
+	 */
+	private Semaphore waitForLaunch(Node node, FitnesseExecutionAction executionAction)
+			throws InterruptedException {
+		Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null || node == null)
+			return null;
+		int limit = jenkins.getDescriptorByType(FitnesseBuilder.DescriptorImpl.class).getLaunchLimit(node);
+		if (limit <= 0)
+			return null;
+		long startMillis = System.currentTimeMillis();
+		Semaphore permit = LaunchLimiter.acquire(node.getNodeName(), limit);
+		long waitMillis = System.currentTimeMillis() - startMillis;
+		logger.printf("Waited %sms for one of the %d FitNesse launches allowed at once on %s%n", waitMillis, limit,
+				node.getDisplayName());
+		if (executionAction == null)
+			return permit;
+		executionAction.setLaunchWaitMillis(waitMillis);
+		if (waitMillis >= SLEEP_MILLIS)
+			executionAction.addNote("Waited " + Util.getTimeSpanString(waitMillis) + " for one of the " + limit
+					+ " FitNesse launches allowed at once on " + node.getDisplayName());
+		return permit;
+	}
+
+	/**
+	 * Reserves a free port on the node the build runs on for the FitNesse
+	 * instance to start on, in place of the configured one.
+	 */
+	private void allocatePort(Launcher launcher) throws IOException, InterruptedException {
+		allocatedPort = launcher.getChannel().call(new PortAllocator.Reserve());
+		logger.println("Reserved port " + allocatedPort + " for FitNesse");
+	}
+
+	private void releasePort(Launcher launcher) {
+		if (allocatedPort == -1)
+			return;
+		try {
+			launcher.getChannel().call(new PortAllocator.Release(allocatedPort));
+		} catch (Exception e) {
+			e.printStackTrace(logger);
+		}
+	}
+
+	/**
+	 * @return the port reserved for this build if any, the configured one
+	 *         otherwise
+	 */
+	int getFitnessePort() {
+		return allocatedPort == -1 ? builder.getFitnessePort(envVars) : allocatedPort;
+	}
+
+	/**
+	 * @param outputDirectory
+	 *          where to capture the output on the node, null to send it to the
+	 *          console
+	 */
+	private Proc startFitnesse(FilePath workingDirectory, Launcher launcher, FilePath outputDirectory)
+			throws IOException, InterruptedException {
 		logger.println("Starting new Fitnesse instance...");
-		ProcStarter procStarter = launcher.launch().cmds(getJavaCmd(workingDirectory));
-		procStarter.pwd(getFilePath(workingDirectory, builder.getFitnesseJavaWorkingDirectory()));
-		procStarter.stdout(logger).stderr(logger);
-		return procStarter.start();
+		return launch(launcher, getJavaCmd(workingDirectory), workingDirectory, outputDirectory);
+	}
+
+	private Proc launch(Launcher launcher, List<String> cmds, FilePath workingDirectory, FilePath outputDirectory)
+			throws IOException, InterruptedException {
+		FilePath pwd = getFilePath(workingDirectory, builder.getFitnesseJavaWorkingDirectory());
+		if (outputDirectory == null) {
+			ProcStarter procStarter = launcher.launch().cmds(cmds).envs(envVars);
+			procStarter.pwd(pwd);
+			procStarter.stdout(logger).stderr(logger);
+			return procStarter.start();
+		}
+		String pattern = builder.getFitnesseOutputPattern(envVars);
+		return new ProcessOutputCapture.CapturedProc(launcher.getChannel().call(
+				new ProcessOutputCapture.Launch(cmds, envVars, pwd.getRemote(), outputDirectory.getRemote(), listener,
+						builder.getFitnesseOutputTailKB(envVars) * 1024, pattern.isEmpty() ? null : pattern,
+						ProcessOutputCapture.DEFAULT_SEGMENT_BYTES)));
+	}
+
+	/**
+	 * @return where to capture the output of the FitNesse process to on its
+	 *         node, or null if it goes to the console
+	 */
+	private FilePath getOutputDirectory(AbstractBuild<?, ?> build, FilePath workingDirectory) throws IOException,
+			InterruptedException {
+		if (builder.getFitnesseOutputTailKB(envVars) < 0)
+			return null;
+		FilePath outputRoot = workingDirectory;
+		if (getNode() != null && getNode().getRootPath() != null)
+			outputRoot = getNode().getRootPath();
+		FilePath outputDirectory = outputRoot.child(ProcessOutputCapture.DIR).child(
+				build.getParent().getFullName().replace('/', '_') + "-" + build.getNumber());
+		outputDirectory.deleteRecursive();
+		logger.println("Capturing FitNesse output to " + outputDirectory.getRemote());
+		return outputDirectory;
+	}
+
+	/**
+	 * Copies the captured output back as build artifacts when something went
+	 * wrong, then drops it from the node.
+	 *
+	 * @param fitnesseProc
+	 *          null if FitNesse could not be launched
+	 */
+	private void closeOutputCapture(AbstractBuild<?, ?> build, ProcessOutputCapture.CapturedProc fitnesseProc,
+			FilePath outputDirectory, boolean passed) {
+		try {
+			if (fitnesseProc != null) {
+				List<String> files = fitnesseProc.close();
+				if (!passed) {
+					for (String file : files)
+						outputDirectory.child(file).copyTo(new FilePath(new File(build.getArtifactsDir(), file)));
+					executionAction.addNote("The FitNesse output was kept as artifact " + ProcessOutputCapture.FILE_NAME);
+				}
+			}
+		} catch (IOException e) {
+			logger.println("Could not archive the FitNesse output");
+			e.printStackTrace(logger);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				outputDirectory.deleteRecursive();
+			} catch (IOException e) {
+				logger.println("Could not delete " + outputDirectory.getRemote() + ": " + e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 	public ArrayList<String> getJavaCmd(FilePath workingDirectory) throws IOException, InterruptedException {
@@ -93,7 +881,7 @@ public class FitnesseExecutor {
 		if (!builder.getFitnesseJdk(envVars).isEmpty()) {
 			JDK jdk = Jenkins.getInstance().getJDK(builder.getFitnesseJdk(envVars));
 			if (jdk != null) {
-				jdk = jdk.forNode(Computer.currentComputer().getNode(), listener);
+				jdk = jdk.forNode(getNode(), listener);
 				java = getJavaBinFromjavaHome(workingDirectory, jdk.getHome());
 			}
 		}
@@ -109,30 +897,245 @@ public class FitnesseExecutor {
 		String fitnesseJavaOpts = builder.getFitnesseJavaOpts(envVars);
 		String[] java_opts = ("".equals(fitnesseJavaOpts) ? new String[0] : fitnesseJavaOpts.split(" "));
 
-		String absolutePathToFitnesseJar = getAbsolutePathToFile(workingDirectory, builder.getFitnessePathToJar());
+		String absolutePathToFitnesseJar = getFitnesseJar(workingDirectory);
 		String[] jar_opts = { "-jar", absolutePathToFitnesseJar };
 
-		FilePath absolutePathToFitNesseRoot = getFilePath(workingDirectory, builder.getFitnessePathToRoot());
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add(java);
+		if (java_opts.length > 0)
+			cmd.addAll(Arrays.asList(java_opts));
+		if (builder.getFitnesseCdsArchive())
+			cmd.addAll(getCdsOptions(workingDirectory, java, absolutePathToFitnesseJar));
+		cmd.addAll(Arrays.asList(jar_opts));
+		cmd.addAll(getFitnesseArgs(workingDirectory));
+
+		return cmd;
+	}
+
+	/**
+	 * @return the path of fitnesse.jar on the node, its copy in the jar cache
+	 *         of the node if so configured, see {@link JarCache}
+	 */
+	private String getFitnesseJar(FilePath workingDirectory) throws IOException, InterruptedException {
+		FilePath jar = getFilePath(workingDirectory, builder.getFitnessePathToJar(envVars));
+		if (!builder.getFitnesseJarCache())
+			return jar.getRemote();
+		FilePath cacheRoot = workingDirectory;
+		if (getNode() != null && getNode().getRootPath() != null)
+			cacheRoot = getNode().getRootPath();
+		String cachedJar = jar.act(new JarCache.Resolve(cacheRoot.child(JarCache.DIR).getRemote(),
+				JarCache.DEFAULT_MAX_ENTRIES));
+		logger.println("Launching the cached copy " + cachedJar + " of " + jar.getRemote());
+		return cachedJar;
+	}
+
+	/**
+	 * @return the JVM options to share the class data of FitNesse with earlier
+	 *         launches on this node, see {@link CdsArchive}
+	 */
+	private List<String> getCdsOptions(FilePath workingDirectory, String java, String jar) throws IOException,
+			InterruptedException {
+		FilePath cacheRoot = workingDirectory;
+		if (getNode() != null && getNode().getRootPath() != null)
+			cacheRoot = getNode().getRootPath();
+		FilePath archive = new FilePath(cacheRoot.getChannel(), cacheRoot.child(CdsArchive.DIR).act(
+				new CdsArchive.Prepare(java, jar)));
+		cdsArchiveExisted = !CdsArchive.isDump(archive.getRemote());
+		if (cdsArchiveExisted) {
+			logger.println("Sharing FitNesse class data from " + archive.getRemote());
+		} else {
+			cdsDump = archive;
+			logger.println("FitNesse class data will be archived to "
+					+ archive.getParent().child(CdsArchive.getArchiveName(archive.getName())).getRemote()
+					+ " when it stops");
+		}
+		return CdsArchive.getOptions(archive.getRemote(), cdsArchiveExisted);
+	}
+
+	/**
+	 * Moves the class data archive FitNesse dumped when it stopped into place.
+	 */
+	private void publishCdsArchive() {
+		if (cdsDump == null)
+			return;
+		try {
+			if (cdsDump.act(new CdsArchive.Publish()))
+				logger.println("FitNesse class data archived for later launches");
+		} catch (IOException e) {
+			logger.println("Could not archive the FitNesse class data: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			cdsDump = null;
+		}
+	}
+
+	/**
+	 * Snapshots FitNesseRoot for the FitNesse instance of the build, next to it
+	 * or copied into the RAM-backed directory if one is configured, see
+	 * {@link RootSnapshot}.
+	 */
+	private void createRootSnapshot(AbstractBuild<?, ?> build, FilePath workingDirectory,
+			FitnesseExecutionAction executionAction) throws IOException, InterruptedException {
+		FilePath fitnesseRoot = getFitnesseRoot(workingDirectory);
+		String ramDirectory = builder.getFitnesseRamDirectory(envVars);
+		FilePath snapshotsDirectory = ramDirectory.isEmpty() ? fitnesseRoot.getParent() : new FilePath(
+				fitnesseRoot.getChannel(), ramDirectory);
+		FilePath snapshot = snapshotsDirectory.child(RootSnapshot.DIR)
+				.child(build.getParent().getFullName().replace('/', '_') + "-" + build.getNumber())
+				.child(fitnesseRoot.getName());
+		long startMillis = System.currentTimeMillis();
+		snapshot.getParent().deleteRecursive();
+		int[] files = fitnesseRoot.act(new RootSnapshot.Create(snapshot.getRemote(), ramDirectory.isEmpty()));
+		rootSnapshot = snapshot;
+		rootOfSnapshot = fitnesseRoot;
+		String note = String.format("FitNesse ran on a %s of %s, %d files linked and %d copied in %dms",
+				ramDirectory.isEmpty() ? "snapshot" : "copy in " + ramDirectory, fitnesseRoot.getName(), files[0],
+				files[1], System.currentTimeMillis() - startMillis);
+		logger.println(note + " to " + snapshot.getRemote());
+		executionAction.addNote(note);
+	}
+
+	/**
+	 * Copies the test history of the snapshot back to FitNesseRoot and deletes
+	 * the snapshot.
+	 */
+	private void removeRootSnapshot(FitnesseExecutionAction executionAction) {
+		long startMillis = System.currentTimeMillis();
+		try {
+			FilePath history = rootSnapshot.child(RootSnapshot.TEST_HISTORY);
+			int files = 0;
+			if (history.isDirectory())
+				files = history.copyRecursiveTo("**", rootOfSnapshot.child(RootSnapshot.TEST_HISTORY));
+			rootSnapshot.getParent().deleteRecursive();
+			executionAction.addNote(String.format("%d test history files copied back and the %s removed in %dms",
+					files, builder.getFitnesseRamDirectory(envVars).isEmpty() ? "snapshot" : "copy",
+					System.currentTimeMillis() - startMillis));
+		} catch (IOException e) {
+			logger.println("Could not remove the snapshot " + rootSnapshot.getRemote() + ": " + e);
+		} catch (InterruptedException e) {
+			logger.println("Could not remove the snapshot " + rootSnapshot.getRemote() + ": " + e);
+		}
+	}
+
+	/**
+	 * @return the node FitNesse runs on
+	 */
+	private Node getNode() {
+		if (node != null)
+			return node;
+		Computer computer = Computer.currentComputer();
+		return computer == null ? null : computer.getNode();
+	}
+
+	private void recordStartup(FitnesseExecutionAction executionAction, long startupMillis) {
+		executionAction.setStartupMillis(startupMillis);
+		if (cdsArchiveExisted != null)
+			executionAction.addNote("FitNesse started in " + startupMillis + "ms "
+					+ (cdsArchiveExisted ? "sharing archived class data" : "while archiving its class data"));
+		else if (rootSnapshot != null)
+			executionAction.addNote("FitNesse started in " + startupMillis + "ms");
+	}
+
+	/**
+	 * @return the arguments of fitnesse.jar: the FitNesseRoot, the port and
+	 *         any additional options
+	 */
+	ArrayList<String> getFitnesseArgs(FilePath workingDirectory) {
+		FilePath absolutePathToFitNesseRoot = rootSnapshot != null ? rootSnapshot : getFilePath(workingDirectory,
+				builder.getFitnessePathToRoot(envVars));
 		String[] fitnesse_opts = { // --
 		"-d", absolutePathToFitNesseRoot.getParent().getRemote(), // --
 				"-r", absolutePathToFitNesseRoot.getName(), // --
-				"-p", Integer.toString(builder.getFitnessePort(envVars)) };
+				"-p", Integer.toString(getFitnessePort()) };
 
 		// split additional fitness options and add them to those explicitly configured ones
 		String[] addOps = splitOptions(builder.getAdditionalFitnesseOptions());
 
-		String[] fitnesse_opts2 = new String[fitnesse_opts.length + addOps.length];
-		System.arraycopy(fitnesse_opts, 0, fitnesse_opts2, 0, fitnesse_opts.length);
-		System.arraycopy(addOps, 0, fitnesse_opts2, fitnesse_opts.length, addOps.length);
+		ArrayList<String> args = new ArrayList<String>();
+		args.addAll(Arrays.asList(fitnesse_opts));
+		args.addAll(Arrays.asList(addOps));
+		return args;
+	}
 
-		ArrayList<String> cmd = new ArrayList<String>();
-		cmd.add(java);
-		if (java_opts.length > 0)
-			cmd.addAll(Arrays.asList(java_opts));
-		cmd.addAll(Arrays.asList(jar_opts));
-		cmd.addAll(Arrays.asList(fitnesse_opts2));
+	/**
+	 * @return the arguments of fitnesse.jar to execute the target page once,
+	 *         without a server, writing the xml results to the given file
+	 */
+	ArrayList<String> getFitnesseCommandArgs(FilePath workingDirectory, FilePath resultsFile) {
+		return addCommandArgs(getFitnesseArgs(workingDirectory), resultsFile);
+	}
 
-		return cmd;
+	private ArrayList<String> addCommandArgs(ArrayList<String> args, FilePath resultsFile) {
+		args.add("-c");
+		args.add(getFitnessePageCmd().substring(1));
+		args.add("-b");
+		args.add(resultsFile.getRemote());
+		return args;
+	}
+
+	/**
+	 * @return the command line to execute the target page once with FitNesse
+	 *         in command mode, without starting its server, writing the xml
+	 *         results to the given file
+	 */
+	public ArrayList<String> getJavaCommandModeCmd(FilePath workingDirectory, FilePath resultsFile)
+			throws IOException, InterruptedException {
+		return addCommandArgs(getJavaCmd(workingDirectory), resultsFile);
+	}
+
+	/**
+	 * @param outputDirectory
+	 *          where to capture the output on the node, null to send it to the
+	 *          console
+	 */
+	private Proc startFitnesseCommand(FilePath workingDirectory, Launcher launcher, FilePath resultsFile,
+			FilePath outputDirectory) throws IOException, InterruptedException {
+		logger.println("Executing " + builder.getFitnesseTargetPage(envVars) + " with FitNesse in command mode...");
+		resultsFile.delete();
+		return launch(launcher, getJavaCommandModeCmd(workingDirectory, resultsFile), workingDirectory,
+				outputDirectory);
+	}
+
+	/**
+	 * Waits for FitNesse in command mode to have executed the target page, at
+	 * most for the test timeout after which it is killed.
+	 */
+	private void executeCommand(Proc fitnesseProc, FilePath resultsFile) throws IOException, InterruptedException {
+		long startMillis = System.currentTimeMillis();
+		int testTimeout = builder.getFitnesseTestTimeout(envVars);
+		int exitCode = fitnesseProc.joinWithTimeout(testTimeout, TimeUnit.MILLISECONDS, listener);
+		long elapsedMillis = System.currentTimeMillis() - startMillis;
+		if (elapsedMillis >= testTimeout)
+			throw new RunnerWithTimeOut.TimeOutException("FitNesse in command mode was killed after " + elapsedMillis
+					+ "ms");
+		publishCdsArchive();
+		if (exitCode != 0)
+			commandFailed = true;
+		checkResultsReceived(false, resultsFile);
+		logger.printf("FitNesse finished in %dms with exit code %d, xml results written to %s%n", elapsedMillis,
+				exitCode, resultsFile.getRemote());
+	}
+
+	/**
+	 * Executes the target page with FitNesse in command mode inside the JVM of
+	 * the node, see {@link EmbeddedFitnesse}.
+	 */
+	private void executeEmbedded(Launcher launcher, FilePath workingDirectory, FilePath resultsFile)
+			throws IOException, InterruptedException {
+		String jar = getFitnesseJar(workingDirectory);
+		logger.println("Executing " + builder.getFitnesseTargetPage(envVars) + " with " + jar + " in-process...");
+		resultsFile.delete();
+		long startMillis = System.currentTimeMillis();
+		Integer exitCode = launcher.getChannel().call(
+				new EmbeddedFitnesse.Launch(jar, getFitnesseCommandArgs(workingDirectory, resultsFile), builder
+						.getFitnesseTestTimeout(envVars)));
+		if (exitCode == null)
+			throw new RunnerWithTimeOut.TimeOutException("FitNesse was still executing in-process after "
+					+ builder.getFitnesseTestTimeout(envVars) + "ms, its thread was stopped");
+		checkResultsReceived(false, resultsFile);
+		logger.printf("FitNesse finished in %dms with exit code %d, xml results written to %s%n",
+				System.currentTimeMillis() - startMillis, exitCode, resultsFile.getRemote());
 	}
 
 	private String getJavaBinFromjavaHome(FilePath workingDirectory, String javaHome) throws IOException,
@@ -203,70 +1206,433 @@ public class FitnesseExecutor {
 		return launched;
 	}
 
-	private void killProc(Proc proc) {
-		if (proc != null) {
-			try {
-				proc.kill();
-				for (int i = 0; i < 4; ++i) {
-					if (proc.isAlive())
-						Thread.sleep(SLEEP_MILLIS);
-				}
-			} catch (Exception e) {
-				e.printStackTrace(logger);
+	/**
+	 * Stops FitNesse: asks the server to shut down and waits for it to exit,
+	 * up to a deadline, then kills whatever is left of it together with the
+	 * processes it started, e.g. browsers or servers started by fixtures.
+	 *
+	 * @param server
+	 *          false if FitNesse ran in command mode, without a server to ask
+	 * @return how long stopping took
+	 */
+	/* package for test */long stopFitnesse(AbstractBuild<?, ?> build, Proc proc, boolean server) {
+		long startMillis = System.currentTimeMillis();
+		boolean graceful = false;
+		try {
+			if (server && proc.isAlive() && requestShutdown(build)) {
+				proc.joinWithTimeout(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, listener);
+				graceful = !proc.isAlive();
 			}
+			// also kills processes left behind, which carry the environment of the build
+			proc.kill();
+		} catch (Exception e) {
+			e.printStackTrace(logger);
 		}
+		long stopMillis = System.currentTimeMillis() - startMillis;
+		logger.printf("FitNesse %s in %dms%n", graceful ? "shut down" : "was killed", stopMillis);
+		publishCdsArchive();
+		return stopMillis;
 	}
 
-	private void readAndWriteFitnesseResults(final URL readFromURL, final FilePath writeToFilePath)
-			throws InterruptedException {
+	/**
+	 * @return true if the FitNesse server accepted to shut down
+	 */
+	private boolean requestShutdown(AbstractBuild<?, ?> build) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) getFitnesseUrl(build, "/?responder=shutdown").openConnection();
+			connection.setConnectTimeout(READ_PAGE_TIMEOUT);
+			connection.setReadTimeout(READ_PAGE_TIMEOUT);
+			return connection.getResponseCode() == 200;
+		} catch (IOException e) {
+			logger.println("FitNesse did not accept to shut down: " + e);
+			return false;
+		} finally {
+			if (connection != null)
+				connection.disconnect();
+		}
+	}
+
+	/**
+	 * Executes the given pages one at a time and writes the results of all
+	 * pages into a single results file.
+	 */
+	private void readAndWritePageResults(AbstractBuild<?, ?> build, List<String> pages, FilePath writeToFilePath)
+			throws IOException, InterruptedException {
+		if (progressAction != null)
+			progressAction.expectPages(pages);
+		checkResultsReceived(readAndWriteStreamedResults(build, pages, writeToFilePath), writeToFilePath);
+	}
+
+	/**
+	 * Executes the given pages one after the other, or the target page when
+	 * pages is null, and writes every page result into a single results file
+	 * as soon as it is received, so that the file always holds a complete
+	 * document even when execution stops early, e.g. because the fail-fast
+	 * threshold was reached, the test timeout fired or the build was aborted.
+	 * A response cut off before its end keeps the pages completed up to the
+	 * cut; pages whose results got lost that way are requested once more.
+	 *
+	 * @return false if results were cut off, i.e. the results of some pages
+	 *         are missing although the fail-fast threshold wasn't reached, or
+	 *         if no results were received at all, in which case no results
+	 *         file is written
+	 */
+	private boolean readAndWriteStreamedResults(final AbstractBuild<?, ?> build, final List<String> pages,
+			final FilePath writeToFilePath) throws InterruptedException {
 		final RunnerWithTimeOut runnerWithTimeOut = new RunnerWithTimeOut(builder.getFitnesseTestTimeout(envVars));
+		final int failFastThreshold = builder.getFitnesseFailFastThreshold(envVars);
+		final CountDownLatch resultsClosed = new CountDownLatch(1);
+		final Set<String> receivedPages = Collections.synchronizedSet(new HashSet<String>());
+		final ProgressReporter progress = new ProgressReporter(logger);
+		final AtomicBoolean complete = new AtomicBoolean();
+		int stallDumpSeconds = builder.getFitnesseStallDumpSeconds(envVars);
+		final StallDetector stallDetector = stallDumpSeconds == 0 ? null : new StallDetector(runnerWithTimeOut,
+				stallDumpSeconds * 1000L, System.currentTimeMillis());
+		final Resettable timeout = stallDetector == null ? runnerWithTimeOut : stallDetector;
 
 		Runnable readAndWriteResults = new Runnable() {
 			public void run() {
+				ResultsXmlWriter resultsWriter = null;
 				try {
-					writeToFilePath.delete();
-				} catch (Exception e) {
-					// swallow - file may not exist
+					try {
+						writeToFilePath.delete();
+					} catch (Exception e) {
+						// swallow - file may not exist
+					}
+					resultsWriter = new ResultsXmlWriter(writeToFilePath.write(), builder.getFitnesseTargetPage(envVars));
+					final ResultsXmlWriter pageResultsWriter = resultsWriter;
+					final PageListener progressListener = getProgressListener();
+					StreamingResultsParser pageResultsParser = new StreamingResultsParser(new PageListener() {
+						public void pageCompleted(Counts page, byte[] resultElement) throws IOException {
+							pageResultsWriter.append(page, resultElement);
+							receivedPages.add(page.page);
+							progress.pageCompleted();
+							progressListener.pageCompleted(page, resultElement);
+							if (stallDetector != null)
+								stallDetector.pageCompleted(page.page);
+							if (endpoint != null)
+								executionAction.setPageEndpoint(page.page, endpoint);
+							if (failFastThreshold > 0 && pageResultsWriter.getFailedPages() >= failFastThreshold)
+								throw new FailFastException(pageResultsWriter.getFailedPages());
+						}
+					});
+					if (pages == null) {
+						resultsWriter.keepFrameOf(pageResultsParser);
+						URL pageCmdTarget = getFitnessePage(build, true);
+						if (stallDetector != null)
+							stallDetector.requesting(pageCmdTarget.getFile(), System.currentTimeMillis());
+						downloadResults(build, pageCmdTarget, timeout, pageResultsParser, progress, failFastThreshold);
+					} else {
+						List<String> pagesToRun = pages;
+						for (int attempt = 0; !pagesToRun.isEmpty(); ++attempt) {
+							if (attempt > 0)
+								logger.println("Requesting the " + pagesToRun.size()
+										+ " pages whose results were cut off once more");
+							for (String page : pagesToRun) {
+								if (downloadsCancelled || failFastReached(resultsWriter, failFastThreshold))
+									break;
+								URL pageCmdTarget = getFitnesseUrl(build, getFitnessePageTestCmd(page));
+								if (stallDetector != null)
+									stallDetector.requesting(pageCmdTarget.getFile(), System.currentTimeMillis());
+								downloadResults(build, pageCmdTarget, timeout, pageResultsParser, progress,
+										failFastThreshold);
+							}
+							if (downloadsCancelled || failFastReached(resultsWriter, failFastThreshold)
+									|| attempt == MISSING_PAGES_RETRIES)
+								break;
+							pagesToRun = getMissingPages(pagesToRun, receivedPages);
+						}
+					}
+					complete.set(failFastReached(resultsWriter, failFastThreshold)
+							|| (pages == null ? pageResultsParser.getCompletedDocuments() > 0 : getMissingPages(pages,
+									receivedPages).isEmpty()));
+					// pages cut off on a farm server are retried on another one
+					if (failFastReached(resultsWriter, failFastThreshold) || !complete.get() && endpoint == null)
+						executionAction.setPartialResults(true);
+					if (failFastReached(resultsWriter, failFastThreshold))
+						executionAction.addNote(
+								"Stopped after " + resultsWriter.getFailedPages() + " failed pages, results of "
+										+ resultsWriter.getPages() + " pages recorded");
+				} catch (IOException e) {
+					e.printStackTrace(logger);
+				} catch (InterruptedException e) {
+					e.printStackTrace(logger);
+				} finally {
+					progress.done();
+					if (resultsWriter != null) {
+						completedPages = resultsWriter.getPages();
+						try {
+							if (resultsWriter.isEmpty()) {
+								// e.g. refused, not found or an error page: no document passes for no failures
+								resultsWriter.discard();
+								writeToFilePath.delete();
+								logger.println("No results received, " + writeToFilePath.getRemote() + " not written");
+							} else {
+								resultsWriter.close();
+								logger.println("Xml results of " + resultsWriter.getPages() + " pages saved to "
+										+ writeToFilePath.getRemote());
+							}
+						} catch (IOException e) {
+							e.printStackTrace(logger);
+						} catch (InterruptedException e) {
+							e.printStackTrace(logger);
+						}
+					}
+					resultsClosed.countDown();
 				}
-				final byte[] bytes = getHttpBytes(readFromURL, runnerWithTimeOut, builder.getFitnesseHttpTimeout(envVars));
-				writeFitnesseResults(writeToFilePath, bytes);
 			}
 		};
 
-		runnerWithTimeOut.run(readAndWriteResults);
+		Thread stallWatchdog = stallDetector == null ? null : startStallWatchdog(build, stallDetector);
+		try {
+			runnerWithTimeOut.run(readAndWriteResults);
+			return complete.get();
+		} catch (InterruptedException e) {
+			// timed out or aborted: stop receiving and let the results of the
+			// pages completed so far be closed as a complete document
+			cancelDownloads();
+			if (!resultsClosed.await(CLOSE_RESULTS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+				logger.println("Results file " + writeToFilePath.getRemote() + " was not closed in time");
+			throw e;
+		} finally {
+			if (stallWatchdog != null)
+				stallWatchdog.interrupt();
+		}
+	}
+
+	/**
+	 * Starts watching for FitNesse to stop sending results, and dumps the
+	 * threads of the Java processes of the build each time it does, see
+	 * {@link StallDetector}.
+	 */
+	private Thread startStallWatchdog(final AbstractBuild<?, ?> build, final StallDetector stallDetector) {
+		Thread stallWatchdog = new Thread("FitNesse stall watchdog for " + build) {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(RunnerWithTimeOut.POLL_EVERY_MILLIS);
+						long nowMillis = System.currentTimeMillis();
+						if (stallDetector.isNewStall(nowMillis))
+							dumpThreads(build, stallDetector.describe(nowMillis));
+					}
+				} catch (InterruptedException e) {
+					// results received or given up on
+				}
+			}
+		};
+		stallWatchdog.setDaemon(true);
+		stallWatchdog.start();
+		return stallWatchdog;
+	}
+
+	/**
+	 * Archives a thread dump of each Java process of the build on the node it
+	 * runs on and notes which page was executing. Only notes the page when
+	 * FitNesse doesn't run in a process the build launched, as the processes
+	 * are found by the <tt>BUILD_TAG</tt> in their environment.
+	 */
+	private void dumpThreads(AbstractBuild<?, ?> build, String stall) throws InterruptedException {
+		if (!isLaunchedByBuild(build)) {
+			logger.println(stall);
+			executionAction.addNote(stall + ", FitNesse "
+					+ (endpoint != null ? "server " + endpoint + " " : "") + "wasn't launched by the build, no threads dumped");
+			return;
+		}
+		logger.println(stall + ", dumping the threads of the Java processes of the build");
+		Node dumpNode = node != null ? node : build.getBuiltOn();
+		String buildTag = envVars.get("BUILD_TAG");
+		if (dumpNode == null || dumpNode.getChannel() == null || buildTag == null) {
+			executionAction.addNote(stall + ", the node of the build can't be reached for thread dumps");
+			return;
+		}
+		try {
+			Map<Integer, String> dumps = dumpNode.getChannel().call(new StallDetector.DumpThreads(buildTag));
+			if (dumps.isEmpty()) {
+				executionAction.addNote(stall + ", no Java process of the build found on "
+						+ dumpNode.getDisplayName() + " for thread dumps");
+				return;
+			}
+			int number = executionAction.nextStall();
+			File artifactsDir = build.getArtifactsDir();
+			if (!artifactsDir.isDirectory() && !artifactsDir.mkdirs())
+				throw new IOException("Can't create " + artifactsDir);
+			for (Map.Entry<Integer, String> dump : dumps.entrySet()) {
+				File artifact = new File(artifactsDir, StallDetector.getArtifactName(number, dump.getKey()));
+				Files.write(artifact.toPath(), dump.getValue().getBytes("UTF-8"));
+				logger.println("Threads of process " + dump.getKey() + " dumped to " + artifact.getName());
+			}
+			executionAction.addNote(stall + ", threads of " + dumps.size() + " Java processes dumped to "
+					+ StallDetector.ARTIFACT_PREFIX + number + "-*.txt");
+		} catch (IOException e) {
+			e.printStackTrace(logger);
+			executionAction.addNote(stall + ", dumping threads failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return true if FitNesse runs in a process the build launched, started
+	 *         by this step or by {@link FitnesseBuildWrapper}, rather than in
+	 *         the JVM of the node or on a server running elsewhere
+	 */
+	private boolean isLaunchedByBuild(AbstractBuild<?, ?> build) {
+		if (endpoint != null || builder.getFitnesseEmbedded())
+			return false;
+		if (builder.getFitnesseStart())
+			return true;
+		FitnesseInstanceAction instance = build.getAction(FitnesseInstanceAction.class);
+		return instance != null && instance.isAt(builder.getFitnesseHost(build, envVars), getFitnessePort());
+	}
+
+	/**
+	 * Downloads the response to a page command into the parser and, when it
+	 * was cut off before the end of the results document, records how much of
+	 * it was lost.
+	 */
+	private void downloadResults(AbstractBuild<?, ?> build, URL pageCmdTarget, Resettable timeout,
+			StreamingResultsParser parser, ProgressReporter progress, int failFastThreshold) {
+		int documents = parser.getCompletedDocuments();
+		int pages = parser.getCompletedPages();
+		download(pageCmdTarget, timeout, builder.getFitnesseHttpTimeout(envVars), parser, progress);
+		if (parser.getCompletedDocuments() > documents || downloadsCancelled
+				|| (failFastThreshold > 0 && parser.getFailedPages() >= failFastThreshold))
+			return;
+		long lostBytes = parser.discardIncomplete();
+		String note = String.format("Response to %s was cut off, kept %d complete pages and lost %d bytes",
+				pageCmdTarget.getFile(), parser.getCompletedPages() - pages, lostBytes);
+		logger.println(note);
+		executionAction.addNote(note);
+	}
+
+	private static boolean failFastReached(ResultsXmlWriter resultsWriter, int failFastThreshold) {
+		return failFastThreshold > 0 && resultsWriter.getFailedPages() >= failFastThreshold;
+	}
+
+	/**
+	 * @return the pages, in the given order, no result was received for
+	 */
+	static List<String> getMissingPages(List<String> pages, Collection<String> receivedPages) {
+		List<String> missing = new ArrayList<String>();
+		for (String page : pages) {
+			if (!receivedPages.contains(page))
+				missing.add(page);
+		}
+		return missing;
+	}
+
+	/**
+	 * Disconnects from FitNesse and makes any further downloads return
+	 * straight away.
+	 */
+	private void cancelDownloads() {
+		downloadsCancelled = true;
+		synchronized (openConnections) {
+			for (HttpURLConnection connection : openConnections) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * @return a listener that publishes every completed page to the progress
+	 *         shown on the build page
+	 */
+	private PageListener getProgressListener() {
+		final FitnesseProgressAction progress = progressAction;
+		return new PageListener() {
+			public void pageCompleted(Counts page, byte[] resultElement) {
+				if (progress != null)
+					progress.pageCompleted(page);
+			}
+		};
+	}
+
+	/**
+	 * Thrown out of the stream a response is downloaded into to cut the
+	 * connection once enough pages failed.
+	 */
+	static class FailFastException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		FailFastException(int failedPages) {
+			super(failedPages + " pages failed, reached the fail-fast threshold");
+		}
+	}
+
+	/**
+	 * @return the build before the given one that has FitNesse results, or
+	 *         null if there is none
+	 */
+	static AbstractBuild<?, ?> getPreviousBuildWithResults(AbstractBuild<?, ?> build) {
+		AbstractBuild<?, ?> previous = build.getPreviousBuild();
+		while (previous != null && previous.getAction(FitnesseResultsAction.class) == null) {
+			previous = previous.getPreviousBuild();
+		}
+		return previous;
+	}
+
+	/**
+	 * @return the names of the pages that were wrong or threw exceptions in the
+	 *         given build
+	 */
+	static List<String> getFailedPages(AbstractBuild<?, ?> build) {
+		List<String> failedPages = new ArrayList<String>();
+		if (build != null) {
+			FitnesseResults results = build.getAction(FitnesseResultsAction.class).getResult();
+			for (FitnesseResults page : results.getLeafResults()) {
+				if (page.isFailedOverall())
+					failedPages.add(page.getName());
+			}
+		}
+		return failedPages;
 	}
 
 	public byte[] getHttpBytes(URL pageCmdTarget, Resettable timeout, int httpTimeout) {
-		InputStream inputStream = null;
 		ByteArrayOutputStream bucket = new ByteArrayOutputStream();
+		download(pageCmdTarget, timeout, httpTimeout, bucket, new ProgressReporter(logger));
+		return bucket.toByteArray();
+	}
+
+	/**
+	 * Copies the response to the given page command into the given sink as it
+	 * is received
+	 */
+	void download(URL pageCmdTarget, Resettable timeout, int httpTimeout, OutputStream sink,
+			ProgressReporter progress) {
+		HttpURLConnection connection = null;
+		InputStream inputStream = null;
 
 		try {
 			logger.println("Connnecting to " + pageCmdTarget);
-			HttpURLConnection connection = (HttpURLConnection) pageCmdTarget.openConnection();
+			connection = (HttpURLConnection) pageCmdTarget.openConnection();
+			openConnections.add(connection);
+			if (downloadsCancelled)
+				return;
 			connection.setReadTimeout(httpTimeout);
 			logger.println("Connected: " + connection.getResponseCode() + "/" + connection.getResponseMessage());
 
 			inputStream = connection.getInputStream();
-			long recvd = 0, lastLogged = 0;
 			byte[] buf = new byte[4096];
 			int lastRead;
 			while ((lastRead = inputStream.read(buf)) > 0) {
-				bucket.write(buf, 0, lastRead);
+				sink.write(buf, 0, lastRead);
 				timeout.reset();
-				recvd += lastRead;
-				if (recvd - lastLogged > 1024) {
-					logger.println(recvd / 1024 + "k...");
-					lastLogged = recvd;
-				}
+				progress.bytesReceived(lastRead);
 			}
+		} catch (FailFastException e) {
+			logger.println(e.getMessage() + ", disconnecting from " + pageCmdTarget);
+			if (connection != null)
+				connection.disconnect();
 		} catch (IOException e) {
 			// this may be a "premature EOF" caused by e.g. incorrect content-length HTTP header
-			// so it may be non-fatal -- try to recover
+			// so it may be non-fatal -- the complete results received up to here are kept
 			e.printStackTrace(logger);
 		} finally {
+			if (connection != null)
+				openConnections.remove(connection);
 			if (inputStream != null) {
 				try {
-					logger.println("Force close of input stream.");
 					inputStream.close();
 				} catch (Exception e) {
 					logger.println("Caught exception while trying to close input stream.");
@@ -274,26 +1640,37 @@ public class FitnesseExecutor {
 				}
 			}
 		}
-		return bucket.toByteArray();
 	}
 
 	/* package for test */URL getFitnessePage(AbstractBuild<?, ?> build, boolean withCommand) throws IOException {
+		return getFitnesseUrl(build, withCommand ? getFitnessePageCmd() : getFitnessePageBase());
+	}
+
+	private URL getFitnesseUrl(AbstractBuild<?, ?> build, String file) throws IOException {
 		return new URL(builder.getFitnesseSsl() ? "https" : "http", //
 				builder.getFitnesseHost(build, envVars), //
-				builder.getFitnessePort(envVars), //
-				withCommand ? getFitnessePageCmd() : getFitnessePageBase());
+				getFitnessePort(), //
+				file);
 	}
 
 	/* package for test */String getFitnessePageBase() {
-		String targetPageExpression = builder.getFitnesseTargetPage(envVars);
+		String targetPageExpression = getFirstTargetPage();
 		int pos = targetPageExpression.indexOf('?');
 		if (pos == -1)
 			pos = targetPageExpression.length();
 		return "/" + targetPageExpression.substring(0, pos);
 	}
 
+	/**
+	 * @return the target page, the first one of several
+	 */
+	private String getFirstTargetPage() {
+		List<String> targetPages = builder.getFitnesseTargetPages(envVars);
+		return targetPages.isEmpty() ? "" : targetPages.get(0);
+	}
+
 	/* package for test */String getFitnessePageCmd() {
-		String targetPageExpression = builder.getFitnesseTargetPage(envVars);
+		String targetPageExpression = getFirstTargetPage();
 		if (targetPageExpression.contains("?"))
 			return "/" + targetPageExpression + "&format=xml&includehtml";
 
@@ -306,25 +1683,13 @@ public class FitnesseExecutor {
 						+ "&format=xml&includehtml");
 	}
 
-	private void writeFitnesseResults(FilePath resultsFilePath, byte[] results) {
-		OutputStream resultsStream = null;
-		try {
-			resultsStream = resultsFilePath.write();
-			resultsStream.write(results);
-			logger.println("Xml results saved as " + Charset.defaultCharset().displayName() + " to "
-					+ resultsFilePath.getRemote());
-		} catch (IOException e) {
-			e.printStackTrace(logger);
-		} catch (InterruptedException e2) {
-			e2.printStackTrace(logger);
-		} finally {
-			try {
-				if (resultsStream != null)
-					resultsStream.close();
-			} catch (Exception e) {
-				// swallow
-			}
-		}
+	/**
+	 * @return the command executing a single page of the target suite, as a
+	 *         suite of its own so that the SuiteSetUp and SuiteTearDown pages
+	 *         above it run as they would in a run of the whole suite
+	 */
+	/* package for test */static String getFitnessePageTestCmd(String page) {
+		return "/" + page + "?suite&format=xml&includehtml";
 	}
 
 	String getAbsolutePathToFile(FilePath workingDirectory, String fileName) {
@@ -0,0 +1,58 @@
+package hudson.plugins.fitnesse;
+
+import hudson.model.InvisibleAction;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The FitNesse instance {@link FitnesseBuildWrapper} started for a build,
+ * which the FitNesse build steps wait for until it answers.
+ */
+public class FitnesseInstanceAction extends InvisibleAction {
+
+	private final String host;
+	private final int port;
+	private final transient Future<Boolean> ready;
+
+	public FitnesseInstanceAction(String host, int port, Future<Boolean> ready) {
+		this.host = host;
+		this.port = port;
+		this.ready = ready;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return true if this is the instance at the given host and port
+	 */
+	public boolean isAt(String host, int port) {
+		return this.port == port && this.host.equals(host);
+	}
+
+	public boolean isReady() {
+		return ready != null && ready.isDone();
+	}
+
+	/**
+	 * @return true once the instance answers, false if it never did
+	 */
+	public boolean awaitReady() throws InterruptedException {
+		if (ready == null)
+			return false;
+		try {
+			return ready.get();
+		} catch (ExecutionException e) {
+			return false;
+		} catch (CancellationException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.fitnesse;
+
+import hudson.model.AbstractBuild;
+import hudson.model.InvisibleAction;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records that a build only executed some of the pages of its target, so that
+ * {@link FitnesseResultsRecorder} merges its results over the results of an
+ * earlier build instead of publishing them on their own. Every build step adds
+ * its own, merging the results file the step wrote over the results of that
+ * file in the earlier build.
+ */
+public class FitnesseMergeAction extends InvisibleAction {
+
+	private final int previousBuildNumber;
+	private final String freshOrigin;
+	private final String carriedOrigin;
+	private final List<String> removedPages;
+	private final String resultsFileName;
+
+	/**
+	 * @param freshOrigin
+	 *          marks the pages executed by this build, may be null
+	 * @param carriedOrigin
+	 *          marks the pages carried forward from the earlier build, may be
+	 *          null
+	 */
+	public FitnesseMergeAction(int previousBuildNumber, String freshOrigin, String carriedOrigin) {
+		this(previousBuildNumber, freshOrigin, carriedOrigin, Collections.<String> emptyList());
+	}
+
+	/**
+	 * @param removedPages
+	 *          pages of the earlier build that no longer exist and must not be
+	 *          carried forward
+	 */
+	public FitnesseMergeAction(int previousBuildNumber, String freshOrigin, String carriedOrigin,
+			Collection<String> removedPages) {
+		this(previousBuildNumber, freshOrigin, carriedOrigin, removedPages, null);
+	}
+
+	/**
+	 * @param resultsFileName
+	 *          the name of the results file of the build step to merge, null
+	 *          to merge all results of the build
+	 */
+	public FitnesseMergeAction(int previousBuildNumber, String freshOrigin, String carriedOrigin,
+			Collection<String> removedPages, String resultsFileName) {
+		this.previousBuildNumber = previousBuildNumber;
+		this.freshOrigin = freshOrigin;
+		this.carriedOrigin = carriedOrigin;
+		this.removedPages = new ArrayList<String>(removedPages);
+		this.resultsFileName = resultsFileName;
+	}
+
+	public int getPreviousBuildNumber() {
+		return previousBuildNumber;
+	}
+
+	/**
+	 * @return the name of the results file to merge, null for all results
+	 */
+	public String getResultsFileName() {
+		return resultsFileName;
+	}
+
+	public FitnesseResults mergeOver(PrintStream logger, AbstractBuild<?, ?> build, FitnesseResults fresh) {
+		FitnesseResults previous = getPreviousResults(build);
+		if (previous == null) {
+			logger.println("No results of build #" + previousBuildNumber + " to merge with.");
+			return fresh;
+		}
+		logger.println("Merging results over those of build #" + previousBuildNumber);
+		return CompoundFitnesseResults.mergeOver(previous, fresh, freshOrigin, carriedOrigin,
+				removedPages == null ? Collections.<String> emptyList() : removedPages, build.getRootDir());
+	}
+
+	/**
+	 * @return the results of the earlier build, only those read from the
+	 *         results file of the same name if the build read several
+	 */
+	private FitnesseResults getPreviousResults(AbstractBuild<?, ?> build) {
+		AbstractBuild<?, ?> previousBuild = build.getParent().getBuildByNumber(previousBuildNumber);
+		if (previousBuild == null)
+			return null;
+		FitnesseResultsAction action = previousBuild.getAction(FitnesseResultsAction.class);
+		FitnesseResults previous = action == null ? null : action.getResult();
+		if (resultsFileName == null || !(previous instanceof CompoundFitnesseResults))
+			return previous;
+		List<FitnesseResults> files = new ArrayList<FitnesseResults>();
+		for (FitnesseResults file : previous.getChildResults()) {
+			if (resultsFileName.equals(file.getName()))
+				files.add(file);
+		}
+		if (files.isEmpty())
+			return null;
+		return files.size() == 1 ? files.get(0) : CompoundFitnesseResults.createFor(files);
+	}
+}
@@ -0,0 +1,217 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Util;
+import hudson.model.Action;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import jenkins.model.RunAction2;
+
+/**
+ * Progress of the FitNesse pages of a running build, updated by
+ * {@link FitnesseExecutor} as every page result streams in and polled by the
+ * panel on the build page. Estimates the remaining time from the durations the
+ * pages took in an earlier build. Every FitNesse build step of a build adds
+ * one, numbered in the order they were added to tell their panels apart.
+ */
+public class FitnesseProgressAction implements RunAction2 {
+
+	private transient AbstractBuild<?, ?> build;
+	private transient Map<String, Integer> historicalDurations = new HashMap<String, Integer>();
+	private transient long historicalDurationDone;
+
+	private int index;
+	private long historicalDuration;
+	private int expectedPages;
+	private int pagesDone;
+	private int failedPages;
+	private String lastPage;
+	private long startMillis;
+	private long endMillis;
+
+	/**
+	 * @param previousResults
+	 *          the results of an earlier build to estimate from, may be null
+	 */
+	public FitnesseProgressAction(AbstractBuild<?, ?> build, FitnesseResults previousResults) {
+		this.build = build;
+		this.index = build == null ? 0 : build.getActions(FitnesseProgressAction.class).size();
+		this.startMillis = System.currentTimeMillis();
+		if (previousResults != null) {
+			for (FitnesseResults page : previousResults.getLeafResults()) {
+				Counts counts = page.getPageCounts();
+				historicalDurations.put(counts.page, counts.duration);
+				historicalDuration += counts.duration;
+			}
+			expectedPages = historicalDurations.size();
+		}
+	}
+
+	/**
+	 * Narrows the estimate down to the given pages, when only some pages are
+	 * executed.
+	 */
+	public synchronized void expectPages(Collection<String> pages) {
+		expectedPages = pages.size();
+		historicalDuration = 0;
+		for (String page : pages) {
+			Integer duration = historicalDurations.get(page);
+			if (duration != null)
+				historicalDuration += duration;
+		}
+	}
+
+	public synchronized void pageCompleted(Counts page) {
+		++pagesDone;
+		if (page.wrong > 0 || page.exceptions > 0)
+			++failedPages;
+		lastPage = page.page;
+		Integer duration = historicalDurations == null ? null : historicalDurations.get(page.page);
+		if (duration != null)
+			historicalDurationDone += duration;
+	}
+
+	public synchronized void finished() {
+		endMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * {@link RunAction2}
+	 */
+	public void onAttached(Run<?, ?> r) {
+		setBuild(r);
+	}
+
+	/**
+	 * {@link RunAction2}
+	 */
+	public void onLoad(Run<?, ?> r) {
+		setBuild(r);
+	}
+
+	private void setBuild(Run<?, ?> r) {
+		if (r instanceof AbstractBuild)
+			build = (AbstractBuild<?, ?>) r;
+	}
+
+	/**
+	 * referenced in summary.jelly
+	 */
+	public AbstractBuild<?, ?> getBuild() {
+		return build;
+	}
+
+	/**
+	 * referenced in summary.jelly
+	 */
+	public synchronized boolean isRunning() {
+		return endMillis == 0 && build != null && build.isBuilding();
+	}
+
+	/**
+	 * referenced in summary.jelly and panel.jelly, unique among the progress
+	 * panels of the build
+	 */
+	public String getPanelId() {
+		return index == 0 ? "fitnesse-progress" : "fitnesse-progress-" + index;
+	}
+
+	/**
+	 * referenced in panel.jelly
+	 */
+	public synchronized int getPagesDone() {
+		return pagesDone;
+	}
+
+	/**
+	 * referenced in panel.jelly
+	 */
+	public synchronized int getFailedPages() {
+		return failedPages;
+	}
+
+	/**
+	 * referenced in panel.jelly
+	 */
+	public synchronized int getExpectedPages() {
+		return expectedPages;
+	}
+
+	/**
+	 * referenced in panel.jelly
+	 */
+	public synchronized String getLastPage() {
+		return lastPage;
+	}
+
+	/**
+	 * referenced in panel.jelly
+	 */
+	public synchronized String getThroughput() {
+		long elapsed = getElapsedMillis();
+		if (pagesDone == 0 || elapsed == 0)
+			return "-";
+		return String.format("%.1f pages/min", pagesDone * 60000.0 / elapsed);
+	}
+
+	/**
+	 * referenced in panel.jelly
+	 */
+	public synchronized String getEta() {
+		long eta = getEtaMillis();
+		return eta < 0 ? "unknown" : Util.getTimeSpanString(eta);
+	}
+
+	/**
+	 * The time still needed for the pages of the earlier build not executed
+	 * yet, scaled by how fast this build executes them compared with the
+	 * earlier one. Falls back to the average page rate for pages with no
+	 * history.
+	 *
+	 * @return the estimated remaining time in millis, or -1 if there's no way
+	 *         to tell
+	 */
+	synchronized long getEtaMillis() {
+		return getEtaMillis(getElapsedMillis());
+	}
+
+	synchronized long getEtaMillis(long elapsed) {
+		if (historicalDurationDone > 0)
+			return Math.max(0, (historicalDuration - historicalDurationDone) * elapsed / historicalDurationDone);
+		if (pagesDone > 0 && expectedPages > 0)
+			return Math.max(0, (long) (expectedPages - pagesDone) * elapsed / pagesDone);
+		if (pagesDone == 0 && historicalDuration > 0)
+			return Math.max(0, historicalDuration - elapsed);
+		return -1;
+	}
+
+	private long getElapsedMillis() {
+		return (endMillis == 0 ? System.currentTimeMillis() : endMillis) - startMillis;
+	}
+
+	/**
+	 * {@link Action}
+	 */
+	public String getIconFileName() {
+		return null;
+	}
+
+	/**
+	 * {@link Action}
+	 */
+	public String getDisplayName() {
+		return "FitNesse Progress";
+	}
+
+	/**
+	 * {@link Action}
+	 */
+	public String getUrlName() {
+		return index == 0 ? "fitnesseProgress" : "fitnesseProgress" + index;
+	}
+}
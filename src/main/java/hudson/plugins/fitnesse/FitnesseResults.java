@@ -23,6 +23,13 @@ public class FitnesseResults extends TabulatedResult implements
 	private static final String FITNESSE_HOSTNAME = "FITNESSE_HOSTNAME";
 	private static final String FITNESSE_PORT = "FITNESSE_PORT";
 
+	/** Origin of a page that was executed again after failing in an earlier build */
+	public static final String RERUN = "rerun";
+	/** Origin of a page whose results were taken over from an earlier build */
+	public static final String CARRIED_FORWARD = "carried forward";
+	/** Origin of a page whose results were reused because no inputs changed */
+	public static final String REUSED = "reused";
+
 	// private static final Logger log = Logger.getLogger(FitnesseResults.class.getName());
 	private static final long serialVersionUID = 1L;
 	private transient List<FitnesseResults> failed;
@@ -33,6 +40,7 @@ public class FitnesseResults extends TabulatedResult implements
 	private FitnesseResults parent;
 	private List<FitnesseResults> details = new ArrayList<FitnesseResults>();
 	private AbstractBuild<?, ?> owner;
+	private String origin;
 
 	public FitnesseResults(Counts pageCounts) {
 		this.pageCounts = pageCounts;
@@ -75,6 +83,48 @@ public class FitnesseResults extends TabulatedResult implements
 		return (match.size() == 0 ? null : match.get(0));
 	}
 
+	void setOrigin(String origin) {
+		this.origin = origin;
+	}
+
+	/**
+	 * referenced in body.jelly. Tells where the results of a page came from
+	 * when the build did not simply execute it, e.g. {@link #RERUN}.
+	 * 
+	 * @return null if the page was executed as part of its own build
+	 */
+	@Exported(visibility = 2)
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * referenced in body.jelly
+	 * 
+	 * @return the <tt>host:port</tt> of the FitNesse server of the farm that
+	 *         executed this page, or null if it wasn't executed by a farm
+	 */
+	@Exported(visibility = 2)
+	public String getEndpoint() {
+		AbstractBuild<?, ?> build = getOwner();
+		if (build == null)
+			return null;
+		return getEndpoint(build.getActions(FitnesseExecutionAction.class), getName());
+	}
+
+	/**
+	 * @param executionActions
+	 *          those of each FitNesse step of the build
+	 */
+	static String getEndpoint(List<FitnesseExecutionAction> executionActions, String page) {
+		for (FitnesseExecutionAction executionAction : executionActions) {
+			String endpoint = executionAction.getPageEndpoint(page);
+			if (endpoint != null)
+				return endpoint;
+		}
+		return null;
+	}
+
 	public void setOwner(AbstractBuild<?, ?> build) {
 		this.owner = build;
 	}
@@ -433,6 +483,21 @@ public class FitnesseResults extends TabulatedResult implements
 		return details;
 	}
 
+	/**
+	 * Returns the results of the individual pages below this result, i.e. of
+	 * all descendants without children of their own
+	 */
+	List<FitnesseResults> getLeafResults() {
+		List<FitnesseResults> leaves = new ArrayList<FitnesseResults>();
+		for (FitnesseResults child : details) {
+			if (child.hasChildResults())
+				leaves.addAll(child.getLeafResults());
+			else
+				leaves.add(child);
+		}
+		return leaves;
+	}
+
 	/**
 	 * Returns <code>true</code> if this results has html content that is
 	 * available via {@link #getHtmlContent()}	 
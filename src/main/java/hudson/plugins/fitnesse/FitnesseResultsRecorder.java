@@ -25,6 +25,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.servlet.ServletException;
@@ -76,7 +77,10 @@ public class FitnesseResultsRecorder extends Recorder {
 		PrintStream logger = listener.getLogger();
 		try {
 			FilePath[] resultFiles = getResultFiles(logger, build);
-			FitnesseResults results = getResults(logger, resultFiles, build.getRootDir());
+			// one list of the written pages per run, the results files append to it
+			File writeLog = new File(build.getArtifactsDir(), NativePageCounts.WRITE_LOG);
+			writeLog.delete();
+			FitnesseResults results = getResults(logger, build, resultFiles, writeLog);
 			if (results == null)
 				return true; // no Fitnesse results found at all
 
@@ -107,21 +111,80 @@ public class FitnesseResultsRecorder extends Recorder {
 		if (resultsFile.exists()) {
 			// directly configured single file
 			return new FilePath[] { resultsFile };
-		} else {
-			// glob
-			return workingDirectory.list(fitnessePathToXmlResultsIn);
 		}
+		// glob
+		FilePath[] resultFiles = workingDirectory.list(fitnessePathToXmlResultsIn);
+		if (resultFiles.length == 0) {
+			// results of several target pages written next to the configured file
+			resultFiles = workingDirectory.list(FitnesseExecutor.getTargetResultsPath(fitnessePathToXmlResultsIn, "*"));
+		}
+		return resultFiles;
+	}
+
+	/**
+	 * Reads the results files of the build, merging each over the results of
+	 * an earlier build if the step that wrote it left a
+	 * {@link FitnesseMergeAction} for it.
+	 */
+	public FitnesseResults getResults(PrintStream logger, AbstractBuild<?, ?> build, FilePath[] resultsFiles,
+			File writeLog) throws IOException, TransformerException, InterruptedException {
+		List<FitnesseMergeAction> mergeActions = new ArrayList<FitnesseMergeAction>(
+				build.getActions(FitnesseMergeAction.class));
+		List<FitnesseResults> resultsList = new ArrayList<FitnesseResults>();
+		for (FilePath filePath : resultsFiles) {
+			FitnesseResults singleResults = getResults(logger, filePath, build.getRootDir(), writeLog);
+			for (Iterator<FitnesseMergeAction> it = mergeActions.iterator(); it.hasNext();) {
+				FitnesseMergeAction mergeAction = it.next();
+				if (filePath.getName().equals(mergeAction.getResultsFileName())) {
+					singleResults = mergeAction.mergeOver(logger, build, singleResults);
+					it.remove();
+				}
+			}
+			addResults(resultsList, singleResults);
+		}
+		// steps that carried pages forward without writing results of their own
+		for (Iterator<FitnesseMergeAction> it = mergeActions.iterator(); it.hasNext();) {
+			FitnesseMergeAction mergeAction = it.next();
+			if (mergeAction.getResultsFileName() != null) {
+				addResults(resultsList, mergeAction.mergeOver(logger, build, null));
+				it.remove();
+			}
+		}
+		FitnesseResults results = getResults(resultsList);
+		for (FitnesseMergeAction mergeAction : mergeActions) {
+			results = mergeAction.mergeOver(logger, build, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Adds the files of merged results one by one, so that each file keeps its
+	 * name for the next merge to find it by.
+	 */
+	private static void addResults(List<FitnesseResults> resultsList, FitnesseResults results) {
+		if (results instanceof CompoundFitnesseResults)
+			resultsList.addAll(results.getChildResults());
+		else if (results != null)
+			resultsList.add(results);
 	}
 
 	public FitnesseResults getResults(PrintStream logger, FilePath[] resultsFiles, File rootDir) throws IOException,
 			TransformerException, InterruptedException {
+		return getResults(logger, resultsFiles, rootDir, new File(rootDir, NativePageCounts.WRITE_LOG));
+	}
+
+	public FitnesseResults getResults(PrintStream logger, FilePath[] resultsFiles, File rootDir, File writeLog)
+			throws IOException, TransformerException, InterruptedException {
 		List<FitnesseResults> resultsList = new ArrayList<FitnesseResults>();
 
 		for (FilePath filePath : resultsFiles) {
-			FitnesseResults singleResults = getResults(logger, filePath, rootDir);
+			FitnesseResults singleResults = getResults(logger, filePath, rootDir, writeLog);
 			resultsList.add(singleResults);
 		}
+		return getResults(resultsList);
+	}
 
+	private static FitnesseResults getResults(List<FitnesseResults> resultsList) {
 		if (resultsList.isEmpty()) {
 			return null;
 		}
@@ -133,6 +196,11 @@ public class FitnesseResultsRecorder extends Recorder {
 
 	public FitnesseResults getResults(PrintStream logger, FilePath resultsFile, File rootDir) throws IOException,
 			TransformerException, InterruptedException {
+		return getResults(logger, resultsFile, rootDir, new File(rootDir, NativePageCounts.WRITE_LOG));
+	}
+
+	public FitnesseResults getResults(PrintStream logger, FilePath resultsFile, File rootDir, File writeLog)
+			throws IOException, TransformerException, InterruptedException {
 		InputStream resultsInputStream = null;
 		try {
 			logger.println("Reading results as " + Charset.defaultCharset().displayName() + " from "
@@ -145,7 +213,7 @@ public class FitnesseResultsRecorder extends Recorder {
 			logger.println("Parsing results... ");
 			NativePageCountsParser pageCountsParser = new NativePageCountsParser();
 			NativePageCounts pageCounts = pageCountsParser.parse(resultsInputStream, resultFileName, logger, rootDir.getAbsolutePath()
-					+ System.getProperty("file.separator"));
+					+ System.getProperty("file.separator"), writeLog.getAbsolutePath());
 			logger.println("resultsFile: " + getFitnessePathToXmlResultsIn());
 
 			logger.println("Got results: " + pageCounts.getSummary());
@@ -0,0 +1,101 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * One copy per node of each fitnesse.jar the jobs run, keyed by its checksum,
+ * so that jobs with identical jars launch the same file, which stays in the
+ * page cache of the node and keeps the class data archives of the JVM valid
+ * across jobs. A jar is copied into the cache under a temporary name and
+ * moved in place, so that no launch ever sees half a jar, and the least
+ * recently used jars are evicted once the cache holds more than its limit.
+ */
+class JarCache {
+	static final String DIR = "fitnesse-jars";
+	static final int DEFAULT_MAX_ENTRIES = 10;
+
+	/**
+	 * @return the cached copy of the given jar, copied into the cache first if
+	 *         it isn't there yet
+	 */
+	static File get(File cacheDir, File jar, int maxEntries) throws IOException {
+		File entry = new File(cacheDir, Util.getDigestOf(jar));
+		File cachedJar = new File(entry, jar.getName());
+		if (!cachedJar.isFile()) {
+			if (!entry.isDirectory() && !entry.mkdirs())
+				throw new IOException("Can't create " + entry);
+			File tmp = File.createTempFile(jar.getName(), ".tmp", entry);
+			try {
+				Files.copy(jar.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				Files.move(tmp.toPath(), cachedJar.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// another build may have moved the same jar in place meanwhile
+				if (!cachedJar.isFile())
+					throw e;
+			} finally {
+				tmp.delete();
+			}
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		evict(cacheDir, maxEntries, entry);
+		return cachedJar;
+	}
+
+	/**
+	 * Deletes the least recently used entries beyond the given number, never
+	 * the given entry.
+	 */
+	static void evict(File cacheDir, int maxEntries, File keep) {
+		File[] entries = cacheDir.listFiles();
+		if (entries == null || entries.length <= maxEntries)
+			return;
+		List<File> leastRecentlyUsed = new ArrayList<File>(Arrays.asList(entries));
+		Collections.sort(leastRecentlyUsed, new Comparator<File>() {
+			public int compare(File entry1, File entry2) {
+				return Long.compare(entry1.lastModified(), entry2.lastModified());
+			}
+		});
+		leastRecentlyUsed.remove(keep);
+		for (int i = 0; i < entries.length - maxEntries && i < leastRecentlyUsed.size(); ++i) {
+			try {
+				Util.deleteRecursive(leastRecentlyUsed.get(i));
+			} catch (IOException e) {
+				// still in use where files can't be deleted while open, next time
+			}
+		}
+	}
+
+	/**
+	 * Resolves the jar it is called on to its cached copy on the node it lives
+	 * on.
+	 *
+	 * @return the absolute path of the cached copy
+	 */
+	static class Resolve extends MasterToSlaveFileCallable<String> {
+		private static final long serialVersionUID = 1L;
+		private final String cacheDir;
+		private final int maxEntries;
+
+		Resolve(String cacheDir, int maxEntries) {
+			this.cacheDir = cacheDir;
+			this.maxEntries = maxEntries;
+		}
+
+		public String invoke(File jar, VirtualChannel channel) throws IOException {
+			return get(new File(cacheDir), jar, maxEntries).getAbsolutePath();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package hudson.plugins.fitnesse;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how many FitNesse instances builds may have started on the same node
+ * at the same time. Further builds wait for one of them to stop rather than
+ * oversubscribing the memory of the node.
+ */
+class LaunchLimiter {
+
+	private static final Map<String, Limit> LIMITS = new HashMap<String, Limit>();
+
+	private static class Limit {
+		final int launches;
+		final Semaphore semaphore;
+
+		Limit(int launches) {
+			this.launches = launches;
+			this.semaphore = new Semaphore(launches, true);
+		}
+	}
+
+	/**
+	 * @param labelLimits
+	 *          one <tt>label=limit</tt> pair per line, the first label the node
+	 *          has wins
+	 * @param defaultLimit
+	 *          the limit of nodes with none of the labels, 0 for no limit
+	 * @return the number of FitNesse instances allowed at once on a node with
+	 *         the given labels, 0 for no limit
+	 */
+	static int getLimit(Collection<String> nodeLabels, String labelLimits, int defaultLimit) {
+		for (String line : labelLimits.split("\n")) {
+			int pos = line.indexOf('=');
+			if (pos == -1)
+				continue;
+			if (nodeLabels.contains(line.substring(0, pos).trim())) {
+				try {
+					return Integer.parseInt(line.substring(pos + 1).trim());
+				} catch (NumberFormatException e) {
+					// ignore malformed lines, validated on configuration
+				}
+			}
+		}
+		return defaultLimit;
+	}
+
+	/**
+	 * Waits until the node has a launch left, if it is limited.
+	 *
+	 * @return the semaphore to release once FitNesse stopped, or null if the
+	 *         node is not limited
+	 */
+	static Semaphore acquire(String nodeName, int limit) throws InterruptedException {
+		if (limit <= 0)
+			return null;
+		Semaphore semaphore;
+		synchronized (LIMITS) {
+			Limit current = LIMITS.get(nodeName);
+			if (current == null || current.launches != limit) {
+				// builds holding the previous limit release into it, new ones wait on the new one
+				current = new Limit(limit);
+				LIMITS.put(nodeName, current);
+			}
+			semaphore = current.semaphore;
+		}
+		semaphore.acquire();
+		return semaphore;
+	}
+}
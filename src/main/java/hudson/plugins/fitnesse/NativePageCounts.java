@@ -1,9 +1,14 @@
 package hudson.plugins.fitnesse;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -31,6 +36,11 @@ public class NativePageCounts extends DefaultHandler {
 	public static final String SUMMARY = "summary";
 	public static final String DETAIL = "detail";
 	private static final List<String> COUNTABLE = Arrays.asList(new String[] { SUMMARY, DETAIL });
+	/**
+	 * Lists the files the page contents were written to and their sizes in
+	 * bytes, one line per page
+	 */
+	public static final String WRITE_LOG = "fitnesse-page-files.log";
 
 	private Counts summary;
 	private final Map<String, Counts> allCounts = new HashMap<String, Counts>();
@@ -38,11 +48,24 @@ public class NativePageCounts extends DefaultHandler {
 	private final String rootDirName;
 	private final PrintStream logger;
 	private final String resultFileName;
+	private final String writeLogName;
+	private PrintWriter writeLog;
+	private int filesWritten;
+	private long bytesWritten;
 
 	public NativePageCounts(PrintStream logger, String resultFileName, String rootDirName) {
+		this(logger, resultFileName, rootDirName, rootDirName + WRITE_LOG);
+	}
+
+	/**
+	 * @param writeLogName
+	 *            the file to append the {@link #WRITE_LOG} lines to
+	 */
+	public NativePageCounts(PrintStream logger, String resultFileName, String rootDirName, String writeLogName) {
 		this.logger = logger;
 		this.rootDirName = rootDirName;
 		this.resultFileName = resultFileName;
+		this.writeLogName = writeLogName;
 		logger.println("Write fitnesse results to: " + rootDirName);
 	}
 
@@ -179,17 +202,19 @@ public class NativePageCounts extends DefaultHandler {
 	 */
 	private String writeFitnesseResultFiles(String pageName, String htmlContent) {
 		if (null == htmlContent) {
-			logger.println(" Could not find content for page: " + pageName);
+			logWrite("no content for " + pageName);
 			return null;
 		}
-		BufferedWriter out = null;
+		FileOutputStream out = null;
 		String fileName = rootDirName + pageName;
 		try {
 			// Create separate file for every test in a suite
-			FileWriter fstream = new FileWriter(fileName);
-			out = new BufferedWriter(fstream);
-			out.write(htmlContent);
-			logger.println(" File: " + fileName + " wrote");
+			byte[] bytes = htmlContent.getBytes(Charset.defaultCharset());
+			out = new FileOutputStream(fileName);
+			out.write(bytes);
+			++filesWritten;
+			bytesWritten += bytes.length;
+			logWrite(fileName + " " + bytes.length);
 			return fileName;
 		} catch (IOException e) {
 			logger.println("Error while writing to out file: " + fileName + "\n" + e.toString());
@@ -204,4 +229,37 @@ public class NativePageCounts extends DefaultHandler {
 		}
 		return null;
 	}
+
+	private void logWrite(String line) {
+		if (writeLog == null) {
+			try {
+				File parent = new File(writeLogName).getParentFile();
+				if (parent != null)
+					parent.mkdirs();
+				writeLog = new PrintWriter(new BufferedWriter(new FileWriter(writeLogName, true)));
+			} catch (IOException e) {
+				logger.println("Could not open " + writeLogName + ", logging here instead\n" + e.toString());
+				writeLog = new PrintWriter(new OutputStreamWriter(logger)) {
+					@Override
+					public void close() {
+						flush();
+					}
+				};
+			}
+		}
+		writeLog.println(line);
+	}
+
+	/**
+	 * Sums up the page contents written in a single console line, their
+	 * details went to {@link #WRITE_LOG}.
+	 */
+	void closeWriteLog() {
+		if (writeLog == null)
+			return;
+		writeLog.close();
+		writeLog = null;
+		logger.println("Wrote content of " + filesWritten + " pages (" + bytesWritten / 1024 + " KB), listed in "
+				+ writeLogName);
+	}
 }
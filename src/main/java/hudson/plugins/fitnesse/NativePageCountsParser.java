@@ -14,9 +14,18 @@ public class NativePageCountsParser {
 
 	public NativePageCounts parse(InputStream inputStream, String resultFileName, PrintStream logger, String rootDirName)
 			throws TransformerException, IOException {
-		NativePageCounts fitnessePageCounts = new NativePageCounts(logger, resultFileName, rootDirName);
+		return parse(inputStream, resultFileName, logger, rootDirName, rootDirName + NativePageCounts.WRITE_LOG);
+	}
+
+	public NativePageCounts parse(InputStream inputStream, String resultFileName, PrintStream logger,
+			String rootDirName, String writeLogName) throws TransformerException, IOException {
+		NativePageCounts fitnessePageCounts = new NativePageCounts(logger, resultFileName, rootDirName, writeLogName);
 		SAXResult intermediateResult = new SAXResult(fitnessePageCounts);
-		transformRawResults(inputStream, intermediateResult);
+		try {
+			transformRawResults(inputStream, intermediateResult);
+		} finally {
+			fitnessePageCounts.closeWriteLog();
+		}
 		return fitnessePageCounts;
 	}
 
@@ -0,0 +1,164 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Content hashes of the pages of a FitNesseRoot, stored with a build so that
+ * a later build can tell which pages changed since and only execute the tests
+ * those changes may affect.
+ */
+class PageHashes {
+
+	static final String FILE_NAME = "fitnesse-page-hashes.properties";
+
+	/**
+	 * @return the latest build before the given one that recorded page hashes
+	 *         and published FitNesse results, or null if there is none
+	 */
+	static AbstractBuild<?, ?> getBaselineBuild(AbstractBuild<?, ?> build) {
+		AbstractBuild<?, ?> previous = FitnesseExecutor.getPreviousBuildWithResults(build);
+		while (previous != null) {
+			if (new File(previous.getRootDir(), FILE_NAME).isFile()
+					&& (previous.getResult() == null || !previous.getResult().isWorseThan(Result.UNSTABLE)))
+				return previous;
+			previous = FitnesseExecutor.getPreviousBuildWithResults(previous);
+		}
+		return null;
+	}
+
+	static void save(File buildDir, Map<String, String> hashes) throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(hashes);
+		OutputStream out = new FileOutputStream(new File(buildDir, FILE_NAME));
+		try {
+			properties.store(out, "FitNesse page content hashes");
+		} finally {
+			out.close();
+		}
+	}
+
+	static Map<String, String> load(File buildDir) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(new File(buildDir, FILE_NAME));
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		Map<String, String> hashes = new TreeMap<String, String>();
+		for (String page : properties.stringPropertyNames()) {
+			hashes.put(page, properties.getProperty(page));
+		}
+		return hashes;
+	}
+
+	/**
+	 * @return the pages that were added, removed or modified between the two
+	 *         sets of hashes
+	 */
+	static Set<String> getChangedPages(Map<String, String> before, Map<String, String> after) {
+		Set<String> changed = new TreeSet<String>();
+		for (Map.Entry<String, String> page : after.entrySet()) {
+			if (!page.getValue().equals(before.get(page.getKey())))
+				changed.add(page.getKey());
+		}
+		for (String page : before.keySet()) {
+			if (!after.containsKey(page))
+				changed.add(page);
+		}
+		return changed;
+	}
+
+	/**
+	 * A changed test page affects itself only. Any other changed page (SetUp,
+	 * TearDown, scenario libraries, suite pages defining variables...) affects
+	 * every test below its parent, as that is where FitNesse inherits or
+	 * includes it from.
+	 */
+	static Set<String> getImpactedTests(Collection<String> changedPages, Collection<String> testPages) {
+		Set<String> impacted = new TreeSet<String>();
+		for (String changed : changedPages) {
+			if (testPages.contains(changed)) {
+				impacted.add(changed);
+				continue;
+			}
+			int dot = changed.lastIndexOf('.');
+			String parentPrefix = dot == -1 ? "" : changed.substring(0, dot + 1);
+			for (String test : testPages) {
+				if (test.startsWith(parentPrefix))
+					impacted.add(test);
+			}
+		}
+		return impacted;
+	}
+
+	/**
+	 * Hashes the content and properties of every page of a FitNesseRoot on the
+	 * node it lives on.
+	 */
+	static class HashPages extends MasterToSlaveFileCallable<TreeMap<String, String>> {
+		private static final long serialVersionUID = 1L;
+
+		public TreeMap<String, String> invoke(File fitnesseRoot, VirtualChannel channel) throws IOException {
+			TreeMap<String, String> hashes = new TreeMap<String, String>();
+			hash(fitnesseRoot, "", hashes);
+			return hashes;
+		}
+
+		private void hash(File dir, String prefix, Map<String, String> hashes) throws IOException {
+			String[] children = dir.list();
+			if (children == null)
+				return;
+			Arrays.sort(children);
+			for (String child : children) {
+				File file = new File(dir, child);
+				if (file.isFile() && child.endsWith(SuitePages.WIKI_FILE)) {
+					String childName = child.substring(0, child.length() - SuitePages.WIKI_FILE.length());
+					if (SuitePages.isPage(childName))
+						hashes.put(prefix + childName, digest(file));
+				} else if (file.isDirectory() && SuitePages.isPage(child)) {
+					File content = new File(file, SuitePages.CONTENT), properties = new File(file, SuitePages.PROPERTIES);
+					if (content.isFile() || properties.isFile())
+						hashes.put(prefix + child, digest(content, properties));
+					hash(file, prefix + child + ".", hashes);
+				}
+			}
+		}
+
+		private static String digest(File... files) throws IOException {
+			try {
+				MessageDigest md5 = MessageDigest.getInstance("MD5");
+				for (File file : files) {
+					if (file.isFile())
+						md5.update(Files.readAllBytes(file.toPath()));
+					md5.update((byte) 0);
+				}
+				return Util.toHexString(md5.digest());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
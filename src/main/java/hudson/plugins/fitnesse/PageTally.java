@@ -0,0 +1,50 @@
+package hudson.plugins.fitnesse;
+
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+
+/**
+ * Tallies page results into the page counts FitNesse reports for a suite as a
+ * whole. The rules follow tallyCounts() in the fitnesse code base:
+ * - if any wrong assertions within page: page is wrong
+ * - else if any exceptions thrown by assertions within page: page is exception
+ * - else if any ignores within page and no right within page: page is ignore
+ * - else: page is right
+ */
+class PageTally {
+	int right;
+	int wrong;
+	int ignores;
+	int exceptions;
+	int pages;
+	long runTimeInMillis;
+
+	void add(Counts page) {
+		if (page.wrong > 0)
+			++wrong;
+		else if (page.exceptions > 0)
+			++exceptions;
+		else if (page.ignored > 0 && page.right == 0)
+			++ignores;
+		else
+			++right;
+		++pages;
+		runTimeInMillis += page.duration;
+	}
+
+	int getFailedPages() {
+		return wrong + exceptions;
+	}
+
+	Counts toCounts(String page, String resultsDate, String contentFile) {
+		return new Counts(page, resultsDate, right, wrong, ignores, exceptions, (int) runTimeInMillis, contentFile);
+	}
+
+	/**
+	 * The closing elements of a FitNesse xml results document
+	 */
+	String toXml() {
+		return String.format("<finalCounts><right>%d</right><wrong>%d</wrong><ignores>%d</ignores>"
+				+ "<exceptions>%d</exceptions></finalCounts><totalRunTimeInMillis>%d</totalRunTimeInMillis>",
+				right, wrong, ignores, exceptions, runTimeInMillis);
+	}
+}
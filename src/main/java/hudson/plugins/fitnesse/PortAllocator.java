@@ -0,0 +1,73 @@
+package hudson.plugins.fitnesse;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Hands out free ports on the node it is called on, so that builds running
+ * concurrently on the same node each start their FitNesse instance on a port
+ * of their own. A port stays reserved from the moment it is handed out until
+ * it is released, covering the time between finding it free and FitNesse
+ * binding it.
+ */
+class PortAllocator {
+	private static final int MAX_ATTEMPTS = 100;
+
+	/** Ports handed out on this node, i.e. in the JVM the callables run in */
+	private static final Set<Integer> RESERVED = new HashSet<Integer>();
+
+	static int reserve() throws IOException {
+		synchronized (RESERVED) {
+			for (int i = 0; i < MAX_ATTEMPTS; ++i) {
+				ServerSocket socket = new ServerSocket(0);
+				int port;
+				try {
+					port = socket.getLocalPort();
+				} finally {
+					socket.close();
+				}
+				if (RESERVED.add(port))
+					return port;
+			}
+		}
+		throw new IOException("No free port found after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	static void release(int port) {
+		synchronized (RESERVED) {
+			RESERVED.remove(port);
+		}
+	}
+
+	static boolean isReserved(int port) {
+		synchronized (RESERVED) {
+			return RESERVED.contains(port);
+		}
+	}
+
+	static class Reserve extends MasterToSlaveCallable<Integer, IOException> {
+		private static final long serialVersionUID = 1L;
+
+		public Integer call() throws IOException {
+			return reserve();
+		}
+	}
+
+	static class Release extends MasterToSlaveCallable<Void, IOException> {
+		private static final long serialVersionUID = 1L;
+		private final int port;
+
+		Release(int port) {
+			this.port = port;
+		}
+
+		public Void call() {
+			release(port);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Takes the stdout and stderr of the FitNesse process instead of the build
+ * log. Everything goes into gzipped files that roll over once they hold a
+ * given amount of output, keeping the two latest. Only the lines matching a
+ * pattern reach the console while FitNesse runs, followed by the last bytes of
+ * output once it stopped. The capture runs on the node of the process, see
+ * {@link Launch}, so that only those lines cross the channel to the master.
+ * stdout and stderr each write to a {@link #newStream() stream} of their own,
+ * so that a line of one isn't cut by the output of the other.
+ */
+class ProcessOutputCapture extends OutputStream {
+	static final String FILE_NAME = "fitnesse-output.log.gz";
+	static final String ROLLED_FILE_NAME = "fitnesse-output.1.log.gz";
+	static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+	/** Directory on the node, below which each build captures its output */
+	static final String DIR = "fitnesse-output";
+	private static final int MAX_LINE_BYTES = 8 * 1024;
+
+	private final File dir;
+	private final PrintStream console;
+	private final Pattern forwardPattern;
+	private final long segmentBytes;
+	private final byte[] tail;
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+	private OutputStream out;
+	private long segmentWritten;
+	private long written;
+	private int tailEnd;
+	private boolean tailFull;
+
+	/**
+	 * @param tailBytes
+	 *          how many of the last bytes of output to show once FitNesse stopped
+	 * @param forwardPattern
+	 *          lines to show on the console as they come, may be null
+	 */
+	ProcessOutputCapture(File dir, PrintStream console, int tailBytes, Pattern forwardPattern, long segmentBytes)
+			throws IOException {
+		this.dir = dir;
+		this.console = console;
+		this.forwardPattern = forwardPattern;
+		this.segmentBytes = segmentBytes;
+		this.tail = new byte[tailBytes];
+		this.out = open();
+	}
+
+	private OutputStream open() throws IOException {
+		return new GZIPOutputStream(new FileOutputStream(new File(dir, FILE_NAME)));
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		write(b, off, len, line);
+	}
+
+	/**
+	 * @param line
+	 *          the pending line of the stream the bytes come from
+	 */
+	private synchronized void write(byte[] b, int off, int len, ByteArrayOutputStream line) throws IOException {
+		if (segmentWritten > 0 && segmentWritten + len > segmentBytes)
+			roll();
+		out.write(b, off, len);
+		segmentWritten += len;
+		written += len;
+		for (int i = off; i < off + len; ++i) {
+			if (tail.length > 0) {
+				tail[tailEnd++] = b[i];
+				if (tailEnd == tail.length) {
+					tailEnd = 0;
+					tailFull = true;
+				}
+			}
+			if (forwardPattern != null)
+				scanLine(b[i], line);
+		}
+	}
+
+	private void roll() throws IOException {
+		out.close();
+		File rolled = new File(dir, ROLLED_FILE_NAME);
+		if (rolled.exists() && !rolled.delete())
+			throw new IOException("Can't delete " + rolled);
+		if (!new File(dir, FILE_NAME).renameTo(rolled))
+			throw new IOException("Can't roll " + FILE_NAME + " over to " + rolled);
+		out = open();
+		segmentWritten = 0;
+	}
+
+	private void scanLine(byte b, ByteArrayOutputStream line) {
+		if (b == '\n') {
+			String text = line.toString().replaceAll("\r$", "");
+			line.reset();
+			if (forwardPattern.matcher(text).find())
+				console.println(text);
+		} else if (line.size() < MAX_LINE_BYTES) {
+			line.write(b);
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * @return a stream into this capture that collects its own lines to match
+	 *         against the pattern, closing it leaves the capture open
+	 */
+	OutputStream newStream() {
+		return new OutputStream() {
+			private final ByteArrayOutputStream streamLine = new ByteArrayOutputStream();
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				ProcessOutputCapture.this.write(b, off, len, streamLine);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				ProcessOutputCapture.this.flush();
+			}
+		};
+	}
+
+	/**
+	 * Finishes the files and shows the tail of the output on the console.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+		byte[] lastBytes = getTail();
+		console.printf("FitNesse wrote %d KB of output, the last %d KB:%n", written / 1024, lastBytes.length / 1024);
+		console.write(lastBytes);
+		if (lastBytes.length > 0 && lastBytes[lastBytes.length - 1] != '\n')
+			console.println();
+	}
+
+	synchronized byte[] getTail() {
+		if (!tailFull) {
+			byte[] lastBytes = new byte[tailEnd];
+			System.arraycopy(tail, 0, lastBytes, 0, tailEnd);
+			return lastBytes;
+		}
+		byte[] lastBytes = new byte[tail.length];
+		System.arraycopy(tail, tailEnd, lastBytes, 0, tail.length - tailEnd);
+		System.arraycopy(tail, 0, lastBytes, tail.length - tailEnd, tailEnd);
+		return lastBytes;
+	}
+
+	/**
+	 * @return the files holding the output, oldest first
+	 */
+	List<File> getFiles() {
+		List<File> files = new ArrayList<File>();
+		File rolled = new File(dir, ROLLED_FILE_NAME);
+		if (rolled.isFile())
+			files.add(rolled);
+		files.add(new File(dir, FILE_NAME));
+		return files;
+	}
+
+	/**
+	 * A process launched on a node, capturing its output there.
+	 */
+	interface CapturedProcess {
+		boolean isAlive() throws IOException, InterruptedException;
+
+		void kill() throws IOException, InterruptedException;
+
+		int join() throws IOException, InterruptedException;
+
+		/**
+		 * Finishes the files and shows the tail of the output on the console.
+		 *
+		 * @return the names of the files in the capture directory, oldest first
+		 */
+		List<String> close() throws IOException;
+	}
+
+	/**
+	 * Launches a process on the node it is called on, with its stdout and
+	 * stderr captured into the given directory of that node.
+	 */
+	static class Launch extends MasterToSlaveCallable<CapturedProcess, IOException> {
+		private static final long serialVersionUID = 1L;
+		private final List<String> cmds;
+		private final Map<String, String> envs;
+		private final String pwd;
+		private final String dir;
+		private final TaskListener listener;
+		private final int tailBytes;
+		private final String forwardPattern;
+		private final long segmentBytes;
+
+		/**
+		 * @param forwardPattern
+		 *          lines to show on the console as they come, may be null
+		 */
+		Launch(List<String> cmds, Map<String, String> envs, String pwd, String dir, TaskListener listener,
+				int tailBytes, String forwardPattern, long segmentBytes) {
+			this.cmds = cmds;
+			this.envs = envs;
+			this.pwd = pwd;
+			this.dir = dir;
+			this.listener = listener;
+			this.tailBytes = tailBytes;
+			this.forwardPattern = forwardPattern;
+			this.segmentBytes = segmentBytes;
+		}
+
+		public CapturedProcess call() throws IOException {
+			File captureDir = new File(dir);
+			if (!captureDir.isDirectory() && !captureDir.mkdirs())
+				throw new IOException("Can't create " + captureDir);
+			final ProcessOutputCapture capture = new ProcessOutputCapture(captureDir, listener.getLogger(), tailBytes,
+					forwardPattern == null ? null : Pattern.compile(forwardPattern), segmentBytes);
+			final Proc proc;
+			try {
+				proc = new Launcher.LocalLauncher(listener).launch().cmds(cmds).envs(envs).pwd(new File(pwd))
+						.stdout(capture.newStream()).stderr(capture.newStream()).start();
+			} catch (IOException e) {
+				capture.close();
+				throw e;
+			}
+			CapturedProcess process = new CapturedProcess() {
+				public boolean isAlive() throws IOException, InterruptedException {
+					return proc.isAlive();
+				}
+
+				public void kill() throws IOException, InterruptedException {
+					proc.kill();
+				}
+
+				public int join() throws IOException, InterruptedException {
+					return proc.join();
+				}
+
+				public List<String> close() throws IOException {
+					capture.close();
+					List<String> names = new ArrayList<String>();
+					for (File file : capture.getFiles())
+						names.add(file.getName());
+					return names;
+				}
+			};
+			Channel channel = Channel.current();
+			return channel == null ? process : channel.export(CapturedProcess.class, process);
+		}
+	}
+
+	/**
+	 * The captured process as launched on the master, all of its output stays
+	 * on the node.
+	 */
+	static class CapturedProc extends Proc {
+		private final CapturedProcess process;
+
+		CapturedProc(CapturedProcess process) {
+			this.process = process;
+		}
+
+		@Override
+		public boolean isAlive() throws IOException, InterruptedException {
+			return process.isAlive();
+		}
+
+		@Override
+		public void kill() throws IOException, InterruptedException {
+			process.kill();
+		}
+
+		@Override
+		public int join() throws IOException, InterruptedException {
+			return process.join();
+		}
+
+		@Override
+		public InputStream getStdout() {
+			return null;
+		}
+
+		@Override
+		public InputStream getStderr() {
+			return null;
+		}
+
+		@Override
+		public OutputStream getStdin() {
+			return null;
+		}
+
+		/**
+		 * @see CapturedProcess#close()
+		 */
+		List<String> close() throws IOException {
+			return process.close();
+		}
+	}
+}
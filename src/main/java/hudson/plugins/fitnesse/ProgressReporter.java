@@ -0,0 +1,63 @@
+package hudson.plugins.fitnesse;
+
+import java.io.PrintStream;
+
+/**
+ * Reports how far downloading FitNesse results got with at most one console
+ * line per interval, however many bytes and pages come in, so that huge suites
+ * don't flood the build log.
+ */
+class ProgressReporter {
+	static final long DEFAULT_INTERVAL_MILLIS = 10 * 1000;
+
+	private final PrintStream logger;
+	private final long intervalMillis;
+	private final long startMillis;
+	private long lastReportMillis;
+	private long bytes;
+	private int pages;
+
+	ProgressReporter(PrintStream logger) {
+		this(logger, DEFAULT_INTERVAL_MILLIS, System.currentTimeMillis());
+	}
+
+	ProgressReporter(PrintStream logger, long intervalMillis, long startMillis) {
+		this.logger = logger;
+		this.intervalMillis = intervalMillis;
+		this.startMillis = startMillis;
+		this.lastReportMillis = startMillis;
+	}
+
+	synchronized void bytesReceived(int count) {
+		bytesReceived(count, System.currentTimeMillis());
+	}
+
+	synchronized void bytesReceived(int count, long nowMillis) {
+		bytes += count;
+		if (nowMillis - lastReportMillis >= intervalMillis) {
+			lastReportMillis = nowMillis;
+			report(nowMillis);
+		}
+	}
+
+	synchronized void pageCompleted() {
+		++pages;
+	}
+
+	/**
+	 * Reports the final figures, whether or not an interval has passed.
+	 */
+	synchronized void done() {
+		report(System.currentTimeMillis());
+	}
+
+	synchronized void report(long nowMillis) {
+		logger.println(getStatus(nowMillis));
+	}
+
+	synchronized String getStatus(long nowMillis) {
+		long elapsed = Math.max(1, nowMillis - startMillis);
+		return String.format("Received %d KB in %d s (%d KB/s), %d pages", bytes / 1024, elapsed / 1000,
+				bytes * 1000 / 1024 / elapsed, pages);
+	}
+}
@@ -0,0 +1,173 @@
+package hudson.plugins.fitnesse;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Lets a build reuse the results of an earlier build instead of executing
+ * anything when none of the inputs of the tests changed: the FitNesse jar, the
+ * FitNesseRoot tree, the target page and the system under test.
+ */
+class ResultsCache {
+
+	/** Files FitNesse itself writes to below FitNesseRoot while executing */
+	private static final Set<String> GENERATED = new HashSet<String>(Arrays.asList("files/testResults",
+			"files/testProgress", "ErrorLogs", "RecentChanges"));
+
+	/**
+	 * @param sutArtifacts
+	 *          comma separated Ant patterns of the artifacts of the system under
+	 *          test, relative to the working directory, may be empty
+	 */
+	static String getKey(FilePath fitnesseJar, FilePath fitnesseRoot, FilePath workingDirectory, String sutArtifacts,
+			String targetPage, boolean targetIsSuite) throws IOException, InterruptedException {
+		StringBuilder inputs = new StringBuilder();
+		inputs.append("jar ").append(fitnesseJar.digest()).append('\n');
+		inputs.append("root ").append(fitnesseRoot.act(new DigestTree())).append('\n');
+		inputs.append("target ").append(targetPage).append(targetIsSuite ? " suite" : " test").append('\n');
+		if (!sutArtifacts.trim().isEmpty()) {
+			final FilePath baseDirectory = workingDirectory;
+			FilePath[] artifacts = workingDirectory.list(sutArtifacts);
+			Arrays.sort(artifacts, new Comparator<FilePath>() {
+				public int compare(FilePath a, FilePath b) {
+					return getRelativePath(baseDirectory, a).compareTo(getRelativePath(baseDirectory, b));
+				}
+			});
+			for (FilePath artifact : artifacts) {
+				inputs.append("sut ").append(getRelativePath(workingDirectory, artifact)).append(' ')
+						.append(artifact.digest()).append('\n');
+			}
+		}
+		return Util.getDigestOf(inputs.toString());
+	}
+
+	/**
+	 * @return the path of the given file relative to the given directory, with
+	 *         / separators, so that keys don't depend on where the workspace is,
+	 *         e.g. <tt>ws@2</tt>
+	 */
+	static String getRelativePath(FilePath directory, FilePath file) {
+		String path = file.getRemote().replace('\\', '/');
+		String prefix = directory.getRemote().replace('\\', '/');
+		if (!prefix.endsWith("/"))
+			prefix += "/";
+		return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+	}
+
+	/**
+	 * @return the latest of the recent builds with whole results that recorded
+	 *         the given key, or null if there is none
+	 */
+	static AbstractBuild<?, ?> getBuildWithKey(AbstractBuild<?, ?> build, String cacheKey, int maxBuilds) {
+		AbstractBuild<?, ?> previous = FitnesseExecutor.getPreviousBuildWithResults(build);
+		for (int i = 0; previous != null && i < maxBuilds; ++i) {
+			FitnesseExecutionAction action = previous.getAction(FitnesseExecutionAction.class);
+			if (action != null && cacheKey.equals(action.getCacheKey()) && hasWholeResults(previous, action))
+				return previous;
+			previous = FitnesseExecutor.getPreviousBuildWithResults(previous);
+		}
+		return null;
+	}
+
+	/**
+	 * @return false if the build stopped before all pages were executed, e.g.
+	 *         timed out, reached the fail-fast threshold or had results cut
+	 *         off, or failed for another reason
+	 */
+	static boolean hasWholeResults(AbstractBuild<?, ?> build, FitnesseExecutionAction action) {
+		Result result = build.getResult();
+		return !action.hasPartialResults() && result != null && result.isBetterOrEqualTo(Result.UNSTABLE);
+	}
+
+	/**
+	 * Writes the results of the given build, html content included, as a
+	 * FitNesse xml results document.
+	 *
+	 * @return the number of pages written
+	 */
+	static int writeResults(AbstractBuild<?, ?> build, FilePath resultsFile, String rootPath) throws IOException,
+			InterruptedException {
+		FitnesseResults results = build.getAction(FitnesseResultsAction.class).getResult();
+		ResultsXmlWriter writer = new ResultsXmlWriter(resultsFile.write(), rootPath);
+		try {
+			for (FitnesseResults page : results.getLeafResults()) {
+				Counts counts = page.getPageCounts();
+				writer.append(counts, ResultsXmlWriter.resultElement(counts, readContent(counts.contentFile)));
+			}
+		} finally {
+			writer.close();
+		}
+		return writer.getPages();
+	}
+
+	private static String readContent(String contentFile) throws IOException {
+		if (contentFile == null || !new File(contentFile).isFile())
+			return null;
+		// written with the default charset by NativePageCounts
+		return new String(Files.readAllBytes(new File(contentFile).toPath()));
+	}
+
+	/**
+	 * Digests the names and contents of all files below a directory on the
+	 * node it lives on, leaving out those FitNesse generates itself.
+	 */
+	static class DigestTree extends MasterToSlaveFileCallable<String> {
+		private static final long serialVersionUID = 1L;
+
+		public String invoke(File dir, VirtualChannel channel) throws IOException {
+			try {
+				MessageDigest md5 = MessageDigest.getInstance("MD5");
+				digest(dir, "", md5);
+				return Util.toHexString(md5.digest());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+		}
+
+		private void digest(File dir, String path, MessageDigest md5) throws IOException {
+			String[] children = dir.list();
+			if (children == null)
+				return;
+			Arrays.sort(children);
+			for (String child : children) {
+				String childPath = path + child;
+				File file = new File(dir, child);
+				if (GENERATED.contains(childPath) || child.endsWith(".zip"))
+					continue;
+				if (file.isDirectory()) {
+					digest(file, childPath + "/", md5);
+				} else {
+					md5.update(childPath.getBytes(StreamingResultsParser.UTF8));
+					md5.update((byte) 0);
+					InputStream in = Files.newInputStream(file.toPath());
+					try {
+						byte[] buf = new byte[8192];
+						int read;
+						while ((read = in.read(buf)) > 0) {
+							md5.update(buf, 0, read);
+						}
+					} finally {
+						in.close();
+					}
+				}
+			}
+		}
+	}
+}
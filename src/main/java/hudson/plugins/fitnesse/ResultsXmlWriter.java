@@ -0,0 +1,129 @@
+package hudson.plugins.fitnesse;
+
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a FitNesse xml results document out of &lt;result&gt; elements taken
+ * from one or more FitNesse responses, e.g. when pages were executed one by
+ * one. The document can be read by {@link FitnesseResultsRecorder} like any
+ * results file produced by FitNesse itself. Written out of a single response,
+ * the document keeps what FitNesse wrote around the results, e.g. its version
+ * and final counts, unless the response was cut off.
+ */
+class ResultsXmlWriter {
+	private final OutputStream out;
+	private final String rootPath;
+	private final PageTally tally = new PageTally();
+	private StreamingResultsParser response;
+	private boolean started;
+
+	ResultsXmlWriter(OutputStream out, String rootPath) {
+		this.out = out;
+		this.rootPath = rootPath;
+	}
+
+	/**
+	 * Keeps what the single response received by the given parser holds
+	 * around its results in place of a header and footer of its own.
+	 */
+	synchronized void keepFrameOf(StreamingResultsParser response) {
+		this.response = response;
+	}
+
+	static String header(String rootPath) {
+		return "<?xml version=\"1.0\"?><testResults><FitNesseVersion></FitNesseVersion><rootPath>"
+				+ escape(rootPath) + "</rootPath>";
+	}
+
+	static String footer(PageTally tally) {
+		return tally.toXml() + "</testResults>";
+	}
+
+	/**
+	 * @return a &lt;result&gt; element for the given page counts and html
+	 *         content, as FitNesse would have written it
+	 */
+	static byte[] resultElement(Counts page, String content) {
+		StringBuilder result = new StringBuilder("<result><counts>");
+		result.append("<right>").append(page.right).append("</right>");
+		result.append("<wrong>").append(page.wrong).append("</wrong>");
+		result.append("<ignores>").append(page.ignored).append("</ignores>");
+		result.append("<exceptions>").append(page.exceptions).append("</exceptions>");
+		result.append("</counts><runTimeInMillis>").append(page.duration).append("</runTimeInMillis>");
+		if (content != null)
+			result.append("<content><![CDATA[").append(content.replace("]]>", "]]]]><![CDATA[>")).append("]]></content>");
+		result.append("<relativePageName>").append(escape(page.page.substring(page.page.lastIndexOf('.') + 1)))
+				.append("</relativePageName>");
+		result.append("<pageHistoryLink>").append(escape(page.page)).append("?pageHistory&amp;resultDate=")
+				.append(escape(page.resultsDate == null ? "" : page.resultsDate)).append("&amp;format=xml</pageHistoryLink>");
+		result.append("</result>");
+		return result.toString().getBytes(StreamingResultsParser.UTF8);
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	synchronized void append(Counts page, byte[] resultElement) throws IOException {
+		start();
+		out.write(resultElement);
+		out.flush();
+		tally.add(page);
+	}
+
+	int getPages() {
+		return tally.pages;
+	}
+
+	synchronized int getFailedPages() {
+		return tally.getFailedPages();
+	}
+
+	private void start() throws IOException {
+		if (started)
+			return;
+		started = true;
+		if (response != null && response.getPrologue() != null)
+			out.write(response.getPrologue());
+		else
+			write(header(rootPath));
+	}
+
+	/**
+	 * @return true if neither a page nor a whole response was received, i.e.
+	 *         there is nothing to write
+	 */
+	synchronized boolean isEmpty() {
+		return tally.pages == 0 && (response == null || response.getCompletedDocuments() == 0);
+	}
+
+	synchronized void close() throws IOException {
+		try {
+			// a whole response without results is all epilogue
+			if (response != null && response.getCompletedDocuments() == 1
+					&& (started || response.getPrologue() == null)) {
+				out.write(response.getEpilogue());
+			} else {
+				start();
+				write(footer(tally));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Closes the document without writing anything more, e.g. because it is
+	 * empty and is deleted anyway.
+	 */
+	synchronized void discard() throws IOException {
+		out.close();
+	}
+
+	private void write(String text) throws IOException {
+		out.write(text.getBytes(StreamingResultsParser.UTF8));
+	}
+}
@@ -0,0 +1,142 @@
+package hudson.plugins.fitnesse;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * A FitNesseRoot of its own for each FitNesse instance, so that instances
+ * running at the same time neither contend on the wiki files nor mix up their
+ * test histories. Files are hardlinked to those of the FitNesseRoot, which
+ * costs next to nothing, except the files FitNesse rewrites in place, which are
+ * copied so that the FitNesseRoot never changes through a link. Test
+ * histories are left out, each instance starts its own. A snapshot may also
+ * be a plain copy, e.g. into a RAM-backed directory. The plugins.properties
+ * next to the FitNesseRoot is copied next to the snapshot, where FitNesse
+ * looks for it.
+ */
+class RootSnapshot {
+	/** Holds the snapshots, next to the FitNesseRoot so that links are possible */
+	static final String DIR = "fitnesse-snapshots";
+	static final String TEST_HISTORY = "files/testResults";
+	private static final String TEST_PROGRESS = "files/testProgress";
+	static final String PLUGINS_PROPERTIES = "plugins.properties";
+
+	private int linked;
+	private int copied;
+	private boolean linksSupported;
+
+	/**
+	 * @param link
+	 *          false to copy all files
+	 */
+	RootSnapshot(boolean link) {
+		this.linksSupported = link;
+	}
+
+	/**
+	 * @param path
+	 *          the path of a file below the FitNesseRoot, with / separators
+	 * @return true if FitNesse may rewrite the file in place while it executes
+	 *         tests
+	 */
+	static boolean isRewritten(String path) {
+		return path.startsWith("RecentChanges/") || path.startsWith("ErrorLogs/") || path.endsWith(".properties")
+				|| path.equals("properties") || path.equals("properties.xml") || path.endsWith("/properties.xml");
+	}
+
+	/**
+	 * @return true if the file or directory is left out of snapshots
+	 */
+	static boolean isLeftOut(String path) {
+		return path.equals(TEST_HISTORY) || path.equals(TEST_PROGRESS);
+	}
+
+	/**
+	 * Fills the given snapshot directory with the content of the FitNesseRoot.
+	 */
+	void create(File fitnesseRoot, File snapshot) throws IOException {
+		create(fitnesseRoot, snapshot, "");
+		File config = new File(fitnesseRoot.getAbsoluteFile().getParentFile(), PLUGINS_PROPERTIES);
+		if (config.isFile()) {
+			Files.copy(config.toPath(), new File(snapshot.getAbsoluteFile().getParentFile(), PLUGINS_PROPERTIES)
+					.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			++copied;
+		}
+	}
+
+	private void create(File dir, File snapshotDir, String prefix) throws IOException {
+		if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs())
+			throw new IOException("Can't create " + snapshotDir);
+		String[] children = dir.list();
+		if (children == null)
+			return;
+		for (String child : children) {
+			String path = prefix + child;
+			if (isLeftOut(path))
+				continue;
+			File file = new File(dir, child), snapshotFile = new File(snapshotDir, child);
+			if (file.isDirectory()) {
+				create(file, snapshotFile, path + "/");
+			} else if (isRewritten(path) || !link(file, snapshotFile)) {
+				Files.copy(file.toPath(), snapshotFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+				++copied;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the file system can't link the file, it is copied then,
+	 *         and any further files too
+	 */
+	private boolean link(File file, File link) {
+		if (!linksSupported)
+			return false;
+		try {
+			Files.createLink(link.toPath(), file.toPath());
+			++linked;
+			return true;
+		} catch (IOException e) {
+			linksSupported = false;
+		} catch (UnsupportedOperationException e) {
+			linksSupported = false;
+		}
+		return false;
+	}
+
+	int getLinked() {
+		return linked;
+	}
+
+	int getCopied() {
+		return copied;
+	}
+
+	/**
+	 * Snapshots the FitNesseRoot it is called on into the given directory on
+	 * the node it lives on.
+	 *
+	 * @return how many files were linked and copied
+	 */
+	static class Create extends MasterToSlaveFileCallable<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final String snapshot;
+		private final boolean link;
+
+		Create(String snapshot, boolean link) {
+			this.snapshot = snapshot;
+			this.link = link;
+		}
+
+		public int[] invoke(File fitnesseRoot, VirtualChannel channel) throws IOException {
+			RootSnapshot rootSnapshot = new RootSnapshot(link);
+			rootSnapshot.create(fitnesseRoot, new File(snapshot));
+			return new int[] { rootSnapshot.getLinked(), rootSnapshot.getCopied() };
+		}
+	}
+}
@@ -24,7 +24,19 @@ public class RunnerWithTimeOut implements Resettable {
 
 		if (thread.isAlive()) {
 			thread.interrupt();
-			throw new InterruptedException("Waited " + waitedAlready + "ms");
+			throw new TimeOutException("Waited " + waitedAlready + "ms");
+		}
+	}
+
+	/**
+	 * Thrown when the runnable did not finish in time, as opposed to the
+	 * waiting thread being interrupted
+	 */
+	public static class TimeOutException extends InterruptedException {
+		private static final long serialVersionUID = 1L;
+
+		public TimeOutException(String message) {
+			super(message);
 		}
 	}
 
@@ -0,0 +1,137 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Splits a target suite into shards, using the partitions of FitNesse, and
+ * picks the nodes to execute them on, so that a suite isn't bound to the
+ * cores of a single node. Each node gets a single copy of what the shards need
+ * from the workspace, however many shards it executes.
+ */
+class Shards {
+	/** Where the workspace is copied to on the node executing a shard */
+	static final String DIR = "fitnesse-shards";
+
+	/**
+	 * The copies of the workspace of a build, one per node: the first shard of
+	 * a node copies while the others wait for it.
+	 */
+	static class Copies {
+		private final Map<String, FutureTask<Void>> copies = new HashMap<String, FutureTask<Void>>();
+
+		/**
+		 * Waits for the copy to the given node, making it if no other shard did.
+		 */
+		void await(String node, Callable<Void> copy) throws IOException, InterruptedException {
+			FutureTask<Void> task;
+			boolean first = false;
+			synchronized (copies) {
+				task = copies.get(node);
+				if (task == null) {
+					task = new FutureTask<Void>(copy);
+					copies.put(node, task);
+					first = true;
+				}
+			}
+			if (first)
+				task.run();
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof InterruptedException)
+					throw (InterruptedException) e.getCause();
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException("Copying the workspace to " + node + " failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * @return the Ant pattern of what the shards need from the workspace:
+	 *         FitNesseRoot, fitnesse.jar and the artifacts of the system under
+	 *         test, leaving out those outside of the workspace, which the nodes
+	 *         find at the same absolute path
+	 */
+	static String getCopyIncludes(String pathToRoot, String pathToJar, String sutArtifacts) {
+		List<String> includes = new ArrayList<String>();
+		if (isRelative(pathToRoot))
+			includes.add(toPattern(pathToRoot).replaceAll("/$", "") + "/**");
+		if (isRelative(pathToJar))
+			includes.add(toPattern(pathToJar));
+		for (String pattern : sutArtifacts.split(",")) {
+			if (isRelative(pattern.trim()))
+				includes.add(toPattern(pattern.trim()));
+		}
+		return Util.join(includes, ",");
+	}
+
+	/**
+	 * @return true if the path is a non-empty path relative to the workspace
+	 */
+	static boolean isRelative(String path) {
+		return !path.isEmpty() && !path.startsWith("/") && !path.startsWith("\\") && !path.matches("[A-Za-z]:.*");
+	}
+
+	private static String toPattern(String path) {
+		return path.replace('\\', '/').replaceAll("^(\\./)+", "");
+	}
+
+	/**
+	 * @return the target page executing only the given partition, counting
+	 *         from 0, of the given number of partitions of the suite
+	 */
+	static String getShardTargetPage(String targetPage, int shards, int shard) {
+		return targetPage + "&partitionCount=" + shards + "&partitionIndex=" + shard;
+	}
+
+	/**
+	 * @return the online nodes having the given label, those with the most
+	 *         idle executors first
+	 */
+	static List<Node> getOnlineNodes(String label) {
+		Label nodeLabel = Jenkins.getInstance().getLabel(label);
+		List<Node> nodes = new ArrayList<Node>();
+		if (nodeLabel == null)
+			return nodes;
+		for (Node node : nodeLabel.getNodes()) {
+			Computer computer = node.toComputer();
+			if (computer != null && computer.isOnline() && node.getRootPath() != null)
+				nodes.add(node);
+		}
+		Collections.sort(nodes, new Comparator<Node>() {
+			public int compare(Node node1, Node node2) {
+				return node2.toComputer().countIdle() - node1.toComputer().countIdle();
+			}
+		});
+		return nodes;
+	}
+
+	/**
+	 * @return the nodes to execute each of the given number of shards on, in
+	 *         turn over the given nodes
+	 */
+	static <N> List<N> assign(List<N> nodes, int shards) {
+		List<N> assigned = new ArrayList<N>();
+		for (int shard = 0; shard < shards; ++shard) {
+			assigned.add(nodes.get(shard % nodes.size()));
+		}
+		return assigned;
+	}
+}
@@ -0,0 +1,170 @@
+package hudson.plugins.fitnesse;
+
+import hudson.Util;
+import hudson.util.ProcessTree;
+import hudson.util.ProcessTree.OSProcess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Notices when FitNesse stops sending results for a while, well before the
+ * test timeout gives up on it, so that the threads of the Java processes of
+ * the build, i.e. FitNesse and the systems under test it started, can be
+ * dumped while they hang. The processes are told apart from those of other
+ * builds by the BUILD_TAG they inherit from the build, and each is dumped by
+ * the jstack of the JDK it runs on.
+ */
+class StallDetector implements Resettable {
+	/** Start of the names of the artifacts holding the thread dumps */
+	static final String ARTIFACT_PREFIX = "fitnesse-stall-";
+
+	private final Resettable timeout;
+	private final long quietMillis;
+	private long lastActivityMillis;
+	private boolean stalled;
+	private String lastPage;
+	private String request;
+
+	/**
+	 * @param timeout
+	 *          reset as well whenever results are received
+	 */
+	StallDetector(Resettable timeout, long quietMillis, long nowMillis) {
+		this.timeout = timeout;
+		this.quietMillis = quietMillis;
+		this.lastActivityMillis = nowMillis;
+	}
+
+	public void reset() {
+		reset(System.currentTimeMillis());
+	}
+
+	synchronized void reset(long nowMillis) {
+		timeout.reset();
+		lastActivityMillis = nowMillis;
+		stalled = false;
+	}
+
+	/**
+	 * Records the page command being sent, the quiet period starts over.
+	 */
+	synchronized void requesting(String request, long nowMillis) {
+		this.request = request;
+		lastActivityMillis = nowMillis;
+		stalled = false;
+	}
+
+	synchronized void pageCompleted(String page) {
+		lastPage = page;
+	}
+
+	/**
+	 * @return true once the quiet period passed without results, only once
+	 *         until results are received again
+	 */
+	synchronized boolean isNewStall(long nowMillis) {
+		if (stalled || nowMillis - lastActivityMillis < quietMillis)
+			return false;
+		stalled = true;
+		return true;
+	}
+
+	/**
+	 * @return which page was executing when the results stopped
+	 */
+	synchronized String describe(long nowMillis) {
+		return "No results received for " + (nowMillis - lastActivityMillis) / 1000 + "s"
+				+ (lastPage == null ? " before any page completed" : " since page " + lastPage + " completed")
+				+ (request == null ? "" : ", while executing " + request);
+	}
+
+	static String getArtifactName(int stall, int pid) {
+		return ARTIFACT_PREFIX + stall + "-" + pid + ".txt";
+	}
+
+	/**
+	 * @return true if the command line is that of a Java process
+	 */
+	static boolean isJava(List<String> arguments) {
+		if (arguments.isEmpty())
+			return false;
+		String path = arguments.get(0);
+		String executable = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+		return executable.equals("java") || executable.equals("java.exe") || executable.equals("javaw.exe");
+	}
+
+	/**
+	 * @return the jstack next to the given java executable, or the one on the
+	 *         path if there is none
+	 */
+	static String getJstack(String java) {
+		File bin = new File(java).getParentFile();
+		if (bin != null) {
+			for (String jstack : new String[] { "jstack", "jstack.exe" }) {
+				if (new File(bin, jstack).isFile())
+					return new File(bin, jstack).getPath();
+			}
+		}
+		return "jstack";
+	}
+
+	/**
+	 * Dumps the threads of the Java processes having the given BUILD_TAG on
+	 * the node it is called on.
+	 *
+	 * @return the dumps by process id, each preceded by the command line of
+	 *         the process
+	 */
+	static class DumpThreads extends MasterToSlaveCallable<Map<Integer, String>, IOException> {
+		private static final long serialVersionUID = 1L;
+		private final String buildTag;
+
+		DumpThreads(String buildTag) {
+			this.buildTag = buildTag;
+		}
+
+		public Map<Integer, String> call() throws IOException {
+			Map<Integer, String> dumps = new TreeMap<Integer, String>();
+			for (OSProcess process : ProcessTree.get()) {
+				List<String> arguments = process.getArguments();
+				if (isJava(arguments) && process.hasMatchingEnvVars(Collections.singletonMap("BUILD_TAG", buildTag)))
+					dumps.put(process.getPid(), Util.join(arguments, " ") + "\n\n"
+							+ jstack(getJstack(arguments.get(0)), process.getPid()));
+			}
+			return dumps;
+		}
+
+		private static String jstack(String jstack, int pid) {
+			try {
+				Process process = new ProcessBuilder(jstack, String.valueOf(pid)).redirectErrorStream(true).start();
+				ByteArrayOutputStream dump = new ByteArrayOutputStream();
+				InputStream output = process.getInputStream();
+				try {
+					byte[] buf = new byte[4096];
+					int read;
+					while ((read = output.read(buf)) > 0) {
+						dump.write(buf, 0, read);
+					}
+				} finally {
+					output.close();
+				}
+				process.waitFor();
+				return dump.toString("UTF-8");
+			} catch (IOException e) {
+				return jstack + " failed: " + e;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return jstack + " was interrupted";
+			}
+		}
+	}
+}
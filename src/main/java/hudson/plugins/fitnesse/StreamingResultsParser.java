@@ -0,0 +1,309 @@
+package hudson.plugins.fitnesse;
+
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Scans raw FitNesse xml results while they are being received and reports
+ * every complete &lt;result&gt; element, i.e. every executed page, as soon as
+ * its closing tag arrives. Bytes are consumed one chunk at a time so that the
+ * whole response never has to be held in memory to know how far a run got.
+ */
+public class StreamingResultsParser extends OutputStream {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte[] RESULT_START = "<result>".getBytes(UTF8);
+	private static final byte[] RESULT_END = "</result>".getBytes(UTF8);
+	private static final byte[] CDATA_START = "<![CDATA[".getBytes(UTF8);
+	private static final byte[] CDATA_END = "]]>".getBytes(UTF8);
+	private static final byte[] DOCUMENT_END = "</testResults>".getBytes(UTF8);
+
+	interface PageListener {
+		void pageCompleted(Counts page, byte[] resultElement) throws IOException;
+	}
+
+	private final PageListener listener;
+	private final PageTally tally = new PageTally();
+	private final ByteArrayOutputStream element = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+	private byte[] prologue;
+	private byte[] epilogue;
+
+	private boolean inResult;
+	private boolean inCData;
+	private int resultStartMatched;
+	private int resultEndMatched;
+	private int cdataStartMatched;
+	private int cdataEndMatched;
+	private int documentEndMatched;
+	private int documents;
+	private long received;
+	private long completed;
+	private long boundary;
+
+	public StreamingResultsParser(PageListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		++received;
+		if (!inResult) {
+			frame.write(b);
+			documentEndMatched = advance(DOCUMENT_END, documentEndMatched, (byte) b);
+			if (documentEndMatched == DOCUMENT_END.length) {
+				documentEndMatched = 0;
+				++documents;
+				boundary = received;
+				epilogue = frame.toByteArray();
+				frame.reset();
+			}
+			resultStartMatched = advance(RESULT_START, resultStartMatched, (byte) b);
+			if (resultStartMatched == RESULT_START.length) {
+				resultStartMatched = 0;
+				inResult = true;
+				element.reset();
+				element.write(RESULT_START);
+				if (prologue == null && documents == 0)
+					prologue = Arrays.copyOf(frame.toByteArray(), frame.size() - RESULT_START.length);
+				frame.reset();
+			}
+			return;
+		}
+
+		element.write(b);
+		if (inCData) {
+			cdataEndMatched = advance(CDATA_END, cdataEndMatched, (byte) b);
+			if (cdataEndMatched == CDATA_END.length) {
+				cdataEndMatched = 0;
+				inCData = false;
+			}
+			return;
+		}
+
+		cdataStartMatched = advance(CDATA_START, cdataStartMatched, (byte) b);
+		resultEndMatched = advance(RESULT_END, resultEndMatched, (byte) b);
+		if (cdataStartMatched == CDATA_START.length) {
+			cdataStartMatched = 0;
+			resultEndMatched = 0;
+			inCData = true;
+		} else if (resultEndMatched == RESULT_END.length) {
+			resultEndMatched = 0;
+			cdataStartMatched = 0;
+			inResult = false;
+			completed = received;
+			resultCompleted(element.toByteArray());
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		for (int i = off; i < off + len; ++i) {
+			write(b[i]);
+		}
+	}
+
+	/**
+	 * @return the number of bytes received so far
+	 */
+	public long getReceivedBytes() {
+		return received;
+	}
+
+	/**
+	 * @return the number of bytes received up to the end of the last complete
+	 *         &lt;result&gt; element
+	 */
+	public long getCompletedBytes() {
+		return completed;
+	}
+
+	/**
+	 * @return the number of whole results documents received so far, a
+	 *         response cut off before its end doesn't count
+	 */
+	public int getCompletedDocuments() {
+		return documents;
+	}
+
+	/**
+	 * @return what the first response held before its first &lt;result&gt;
+	 *         element, e.g. the FitNesse version, or null if no result was
+	 *         received
+	 */
+	byte[] getPrologue() {
+		return prologue;
+	}
+
+	/**
+	 * @return what the last complete response held after its last
+	 *         &lt;result&gt; element, e.g. the final counts, the whole response
+	 *         if it held no result, or null if no response was complete
+	 */
+	byte[] getEpilogue() {
+		return epilogue;
+	}
+
+	/**
+	 * Drops whatever was received after the last complete &lt;result&gt;
+	 * element or document, so that the next response starts from a clean
+	 * state after one was cut off.
+	 *
+	 * @return the number of bytes dropped
+	 */
+	public long discardIncomplete() {
+		long lost = received - Math.max(completed, boundary);
+		boundary = received;
+		inResult = false;
+		inCData = false;
+		resultStartMatched = 0;
+		resultEndMatched = 0;
+		cdataStartMatched = 0;
+		cdataEndMatched = 0;
+		documentEndMatched = 0;
+		element.reset();
+		frame.reset();
+		return lost;
+	}
+
+	public int getCompletedPages() {
+		return tally.pages;
+	}
+
+	public int getFailedPages() {
+		return tally.getFailedPages();
+	}
+
+	PageTally getTally() {
+		return tally;
+	}
+
+	private void resultCompleted(byte[] resultElement) throws IOException {
+		Counts page = parseResult(resultElement);
+		tally.add(page);
+		if (listener != null)
+			listener.pageCompleted(page, resultElement);
+	}
+
+	/**
+	 * Moves the match of a marker on by one byte, falling back to the longest
+	 * partial match still possible when the byte does not fit.
+	 */
+	private static int advance(byte[] marker, int matched, byte b) {
+		if (marker[matched] == b)
+			return matched + 1;
+		for (int candidate = matched; candidate > 0; --candidate) {
+			if (marker[candidate - 1] != b)
+				continue;
+			int shift = matched + 1 - candidate;
+			boolean prefix = true;
+			for (int i = 0; i < candidate - 1 && prefix; ++i) {
+				prefix = marker[i] == marker[shift + i];
+			}
+			if (prefix)
+				return candidate;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads the page counts out of a single &lt;result&gt; element in the same
+	 * way fitnesse-results.xsl does for a whole document.
+	 */
+	static Counts parseResult(byte[] resultElement) throws IOException {
+		ResultHandler handler = new ResultHandler();
+		try {
+			SAXParserFactory.newInstance().newSAXParser()
+					.parse(new InputSource(new ByteArrayInputStream(resultElement)), handler);
+		} catch (SAXException e) {
+			throw new IOException("Can't parse result element: " + e.getMessage(), e);
+		} catch (ParserConfigurationException e) {
+			throw new IOException("Can't parse result element: " + e.getMessage(), e);
+		}
+		return handler.toCounts();
+	}
+
+	private static class ResultHandler extends DefaultHandler {
+		private final Deque<String> path = new ArrayDeque<String>();
+		private final StringBuilder text = new StringBuilder();
+		private String relativePageName = "";
+		private String pageHistoryLink = "";
+		private int right, wrong, ignores, exceptions, runTimeInMillis;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			path.push(qName);
+			text.setLength(0);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			text.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			path.pop();
+			String parent = path.peek();
+			String value = text.toString().trim();
+			text.setLength(0);
+			if ("counts".equals(parent)) {
+				if ("right".equals(qName))
+					right = toInt(value);
+				else if ("wrong".equals(qName))
+					wrong = toInt(value);
+				else if ("ignores".equals(qName))
+					ignores = toInt(value);
+				else if ("exceptions".equals(qName))
+					exceptions = toInt(value);
+			} else if ("result".equals(parent)) {
+				if ("runTimeInMillis".equals(qName))
+					runTimeInMillis = toInt(value);
+				else if ("relativePageName".equals(qName))
+					relativePageName = value;
+				else if ("pageHistoryLink".equals(qName))
+					pageHistoryLink = value;
+			}
+		}
+
+		private static int toInt(String value) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		Counts toCounts() {
+			String page = relativePageName;
+			String resultsDate = "";
+			int pos = pageHistoryLink.indexOf('?');
+			if (pos > 0)
+				page = pageHistoryLink.substring(0, pos);
+			pos = pageHistoryLink.indexOf("resultDate=");
+			if (pos != -1) {
+				resultsDate = pageHistoryLink.substring(pos + "resultDate=".length());
+				int amp = resultsDate.indexOf('&');
+				if (amp != -1)
+					resultsDate = resultsDate.substring(0, amp);
+			}
+			return new Counts(page, resultsDate, right, wrong, ignores, exceptions, runTimeInMillis, null);
+		}
+	}
+}
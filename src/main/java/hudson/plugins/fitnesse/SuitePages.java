@@ -0,0 +1,178 @@
+package hudson.plugins.fitnesse;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Lists the test pages of a suite straight from FitNesseRoot, so that they can
+ * be executed one at a time in an order of our own choosing.
+ */
+class SuitePages {
+
+	private static final Pattern WIKI_WORD = Pattern.compile("[A-Z][A-Za-z0-9]*");
+	private static final Pattern TEST_PROPERTY = Pattern.compile("<Test\\s*(/>|>\\s*true)");
+	private static final Pattern PRUNE_PROPERTY = Pattern.compile("<Prune\\s*(/>|>\\s*true)");
+	private static final Set<String> NON_TEST_PAGES = new HashSet<String>(Arrays.asList("ErrorLogs",
+			"RecentChanges"));
+	private static final Set<String> FIXTURE_PAGES = new HashSet<String>(Arrays.asList("SetUp", "TearDown",
+			"SuiteSetUp", "SuiteTearDown"));
+	static final String CONTENT = "content.txt";
+	static final String PROPERTIES = "properties.xml";
+	static final String WIKI_FILE = ".wiki";
+
+	/**
+	 * @return true if the given file or directory name is that of a page that
+	 *         can be executed or included by a test, i.e. a wiki word that's
+	 *         not one of FitNesse's bookkeeping pages
+	 */
+	static boolean isPage(String name) {
+		return WIKI_WORD.matcher(name).matches() && !NON_TEST_PAGES.contains(name);
+	}
+
+	/**
+	 * Orders the given pages for fast feedback: pages that failed in recent
+	 * builds first (most recent failures first), then pages modified after
+	 * <code>changedSince</code>, then the rest in name order.
+	 *
+	 * @param pages
+	 *          page name to last modification time
+	 */
+	static List<String> prioritize(Map<String, Long> pages, Collection<String> recentlyFailed, long changedSince) {
+		Set<String> ordered = new LinkedHashSet<String>();
+		for (String page : recentlyFailed) {
+			if (pages.containsKey(page))
+				ordered.add(page);
+		}
+		for (Map.Entry<String, Long> page : new TreeMap<String, Long>(pages).entrySet()) {
+			if (page.getValue() > changedSince)
+				ordered.add(page.getKey());
+		}
+		ordered.addAll(new TreeMap<String, Long>(pages).keySet());
+		return new ArrayList<String>(ordered);
+	}
+
+	/**
+	 * @return the pages that failed in the given build and up to
+	 *         <code>maxBuilds - 1</code> builds with results before it, those of
+	 *         the most recent build first
+	 */
+	static Collection<String> getRecentlyFailedPages(AbstractBuild<?, ?> build, int maxBuilds) {
+		Set<String> failedPages = new LinkedHashSet<String>();
+		for (int i = 0; build != null && i < maxBuilds; ++i) {
+			failedPages.addAll(FitnesseExecutor.getFailedPages(build));
+			build = FitnesseExecutor.getPreviousBuildWithResults(build);
+		}
+		return failedPages;
+	}
+
+	/**
+	 * @return the test pages below the given page, with the time their files
+	 *         were last modified
+	 */
+	static Map<String, Long> list(FilePath fitnesseRoot, String pageName) throws IOException, InterruptedException {
+		return fitnesseRoot.act(new ListTestPages(pageName));
+	}
+
+	/**
+	 * Walks the page tree below a page of a FitNesseRoot on the node it lives
+	 * on. Understands both the <tt>content.txt</tt>/<tt>properties.xml</tt> and
+	 * the <tt>.wiki</tt> file layouts.
+	 */
+	static class ListTestPages extends MasterToSlaveFileCallable<TreeMap<String, Long>> {
+		private static final long serialVersionUID = 1L;
+
+		private final String pageName;
+
+		ListTestPages(String pageName) {
+			this.pageName = pageName;
+		}
+
+		public TreeMap<String, Long> invoke(File fitnesseRoot, VirtualChannel channel) throws IOException {
+			TreeMap<String, Long> testPages = new TreeMap<String, Long>();
+			File pageDir = pageName.isEmpty() ? fitnesseRoot : new File(fitnesseRoot, pageName.replace('.', File.separatorChar));
+			if (pageDir.isDirectory())
+				collect(pageDir, pageName, testPages);
+			return testPages;
+		}
+
+		private void collect(File dir, String name, Map<String, Long> testPages) throws IOException {
+			String[] children = dir.list();
+			if (children == null)
+				return;
+			Arrays.sort(children);
+			String prefix = name.isEmpty() ? "" : name + ".";
+			for (String child : children) {
+				File file = new File(dir, child);
+				if (file.isFile() && child.endsWith(WIKI_FILE)) {
+					String childName = child.substring(0, child.length() - WIKI_FILE.length());
+					if (isPage(childName) && !FIXTURE_PAGES.contains(childName) && isTestPage(childName, readFrontMatter(file)))
+						testPages.put(prefix + childName, file.lastModified());
+				} else if (file.isDirectory() && isPage(child)) {
+					File properties = new File(file, PROPERTIES);
+					String props = properties.isFile() ? read(properties) : null;
+					if (props != null && PRUNE_PROPERTY.matcher(props).find())
+						continue;
+					if (props != null && !FIXTURE_PAGES.contains(child) && TEST_PROPERTY.matcher(props).find())
+						testPages.put(prefix + child, Math.max(properties.lastModified(), new File(file, CONTENT).lastModified()));
+					if (!new File(dir, child + WIKI_FILE).isFile() || !isPruned(new File(dir, child + WIKI_FILE)))
+						collect(file, prefix + child, testPages);
+				}
+			}
+		}
+
+		private static boolean isPruned(File wikiFile) throws IOException {
+			return readFrontMatter(wikiFile).contains("Prune");
+		}
+
+		/**
+		 * Pages without properties of their own are tests when FitNesse would
+		 * default them to be, i.e. when their name starts or ends with "Test"
+		 */
+		private static boolean isTestPage(String name, List<String> frontMatter) {
+			if (frontMatter.contains("Prune"))
+				return false;
+			if (frontMatter.isEmpty())
+				return name.startsWith("Test") || name.endsWith("Test");
+			return frontMatter.contains("Test");
+		}
+
+		private static List<String> readFrontMatter(File wikiFile) throws IOException {
+			List<String> properties = new ArrayList<String>();
+			List<String> lines = Files.readAllLines(wikiFile.toPath(), StreamingResultsParser.UTF8);
+			if (lines.isEmpty() || !"---".equals(lines.get(0).trim()))
+				return properties;
+			for (String line : lines.subList(1, lines.size())) {
+				line = line.trim();
+				if ("---".equals(line))
+					break;
+				int colon = line.indexOf(':');
+				if (colon == -1)
+					properties.add(line);
+				else if (!"false".equalsIgnoreCase(line.substring(colon + 1).trim()))
+					properties.add(line.substring(0, colon).trim());
+			}
+			return properties;
+		}
+
+		private static String read(File file) throws IOException {
+			return new String(Files.readAllBytes(file.toPath()), StreamingResultsParser.UTF8);
+		}
+	}
+}
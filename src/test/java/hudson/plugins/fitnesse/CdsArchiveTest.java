@@ -0,0 +1,117 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CdsArchiveTest {
+	private File dir;
+	private File jdk;
+	private File jar;
+
+	@Before
+	public void createJdkAndJar() throws Exception {
+		dir = new File("target", "cds-archive");
+		jdk = new File("target", "cds-jdk");
+		jar = new File("target", "cds-fitnesse.jar");
+		new File(jdk, "bin").mkdirs();
+		write(new File(jdk, "release"), "JAVA_VERSION=\"17.0.2\"");
+		write(jar, "jar");
+		File[] archives = dir.listFiles();
+		for (File archive : archives == null ? new File[0] : archives)
+			archive.delete();
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private String java() {
+		return new File(new File(jdk, "bin"), "java").getPath();
+	}
+
+	@Test
+	public void archiveShouldDependOnJarPathJarStateAndJdkVersion() {
+		String archive = CdsArchive.getFileName("/ws/fitnesse.jar", 1, 2, "17.0.2");
+
+		Assert.assertEquals(archive, CdsArchive.getFileName("/ws/fitnesse.jar", 1, 2, "17.0.2"));
+		Assert.assertFalse(archive.equals(CdsArchive.getFileName("/other-ws/fitnesse.jar", 1, 2, "17.0.2")));
+		Assert.assertFalse(archive.equals(CdsArchive.getFileName("/ws/fitnesse.jar", 3, 2, "17.0.2")));
+		Assert.assertFalse(archive.equals(CdsArchive.getFileName("/ws/fitnesse.jar", 1, 2, "17.0.3")));
+		Assert.assertTrue(archive.startsWith(CdsArchive.getPrefix("/ws/fitnesse.jar")));
+		Assert.assertTrue(archive.endsWith(".jsa"));
+	}
+
+	@Test
+	public void jdkVersionShouldBeReadFromReleaseFile() throws Exception {
+		Assert.assertEquals("JAVA_VERSION=\"17.0.2\"", CdsArchive.getJdkVersion(java()));
+	}
+
+	@Test
+	public void eachLaunchShouldDumpToNameOfItsOwn() {
+		String dump = CdsArchive.getDumpName("a.jsa");
+
+		Assert.assertTrue(CdsArchive.isDump(dump));
+		Assert.assertFalse(dump.equals(CdsArchive.getDumpName("a.jsa")));
+		Assert.assertEquals("a.jsa", CdsArchive.getArchiveName(dump));
+	}
+
+	@Test
+	public void dumpShouldBeMovedIntoPlaceAndMappedByLaterLaunches() throws Exception {
+		String dump = new CdsArchive.Prepare(java(), jar.getPath()).invoke(dir, null);
+		Assert.assertTrue(CdsArchive.isDump(dump));
+
+		write(new File(dump), "archive");
+		Assert.assertTrue(new CdsArchive.Publish().invoke(new File(dump), null));
+
+		String archive = new CdsArchive.Prepare(java(), jar.getPath()).invoke(dir, null);
+		Assert.assertFalse(CdsArchive.isDump(archive));
+		Assert.assertEquals(CdsArchive.getArchiveName(new File(dump).getName()), new File(archive).getName());
+	}
+
+	@Test
+	public void concurrentDumpShouldNotReplaceArchive() throws Exception {
+		String first = new CdsArchive.Prepare(java(), jar.getPath()).invoke(dir, null);
+		String second = new CdsArchive.Prepare(java(), jar.getPath()).invoke(dir, null);
+		write(new File(first), "first");
+		write(new File(second), "second");
+
+		Assert.assertTrue(new CdsArchive.Publish().invoke(new File(first), null));
+		Assert.assertFalse(new CdsArchive.Publish().invoke(new File(second), null));
+		Assert.assertFalse(new File(second).exists());
+	}
+
+	@Test
+	public void archiveShouldBeDeletedOnceJdkChanged() throws Exception {
+		String dump = new CdsArchive.Prepare(java(), jar.getPath()).invoke(dir, null);
+		write(new File(dump), "archive");
+		new CdsArchive.Publish().invoke(new File(dump), null);
+		File archive = new File(dir, CdsArchive.getArchiveName(new File(dump).getName()));
+
+		write(new File(jdk, "release"), "JAVA_VERSION=\"17.0.3\"");
+		String newDump = new CdsArchive.Prepare(java(), jar.getPath()).invoke(dir, null);
+
+		Assert.assertTrue(CdsArchive.isDump(newDump));
+		Assert.assertFalse(archive.exists());
+	}
+
+	@Test
+	public void firstLaunchShouldDumpArchiveAndLaterOnesMapIt() {
+		Assert.assertEquals(
+				Arrays.asList("-XX:+IgnoreUnrecognizedVMOptions", "-Xshare:auto", "-XX:ArchiveClassesAtExit=a.jsa"),
+				CdsArchive.getOptions("a.jsa", false));
+		Assert.assertEquals(
+				Arrays.asList("-XX:+IgnoreUnrecognizedVMOptions", "-Xshare:auto", "-XX:SharedArchiveFile=a.jsa"),
+				CdsArchive.getOptions("a.jsa", true));
+	}
+}
@@ -0,0 +1,94 @@
+package hudson.plugins.fitnesse;
+
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompoundFitnesseResultsTest {
+
+	private static FitnesseResults page(String name, int right, int wrong) {
+		return new FitnesseResults(new Counts(name, "20100320184439", right, wrong, 0, 0, 10, null));
+	}
+
+	private static FitnesseResults file(String name, FitnesseResults... pages) {
+		FitnesseResults file = new FitnesseResults(new Counts(name, "", 0, 0, 0, 0, 0, null));
+		for (FitnesseResults page : pages) {
+			file.addChild(page);
+		}
+		return file;
+	}
+
+	@Test
+	public void mergeShouldReplaceFreshPagesAndCarryTheOthers() {
+		FitnesseResults previous = file("results.xml", page("Suite.TestA", 1, 0), page("Suite.TestB", 0, 1),
+				page("Suite.TestC", 0, 2));
+		FitnesseResults fresh = file("results.xml", page("Suite.TestB", 1, 0));
+
+		FitnesseResults merged = CompoundFitnesseResults.mergeOver(previous, fresh, FitnesseResults.RERUN, null, null);
+
+		List<FitnesseResults> pages = merged.getLeafResults();
+		Assert.assertEquals(3, pages.size());
+		Assert.assertEquals("Suite.TestB", pages.get(1).getName());
+		Assert.assertEquals(FitnesseResults.RERUN, pages.get(1).getOrigin());
+		Assert.assertTrue(pages.get(1).isPassedOverall());
+		Assert.assertNull(pages.get(0).getOrigin());
+		Assert.assertNull(pages.get(2).getOrigin());
+		Assert.assertEquals(2, merged.getPassCount());
+		Assert.assertEquals(1, merged.getFailOnlyCount());
+	}
+
+	@Test
+	public void mergeShouldKeepFilesOfCompoundResults() {
+		FitnesseResults previous = CompoundFitnesseResults.createFor(Arrays.asList(
+				file("a.xml", page("A.TestA", 0, 1)), file("b.xml", page("B.TestB", 1, 0))));
+		FitnesseResults fresh = file("results.xml", page("A.TestA", 1, 0), page("C.TestNew", 1, 0));
+
+		FitnesseResults merged = CompoundFitnesseResults.mergeOver(previous, fresh, null, "carried", null);
+
+		Assert.assertTrue(merged instanceof CompoundFitnesseResults);
+		Assert.assertEquals(3, merged.getChildResults().size());
+		Assert.assertEquals("a.xml", merged.getChildResults().get(0).getName());
+		Assert.assertNull(merged.getChildResults().get(0).getChildResults().get(0).getOrigin());
+		Assert.assertEquals("carried", merged.getChildResults().get(1).getChildResults().get(0).getOrigin());
+		Assert.assertEquals("C.TestNew", merged.getChildResults().get(2).getChildResults().get(0).getName());
+		Assert.assertEquals(3, merged.getPassCount());
+	}
+
+	@Test
+	public void mergeShouldDropRemovedPages() {
+		FitnesseResults previous = CompoundFitnesseResults.createFor(Arrays.asList(
+				file("a.xml", page("A.TestA", 0, 1)), file("b.xml", page("B.TestB", 1, 0), page("B.TestGone", 1, 0))));
+
+		FitnesseResults merged = CompoundFitnesseResults.mergeOver(previous, null, null,
+				FitnesseResults.CARRIED_FORWARD, Arrays.asList("A.TestA", "B.TestGone"), null);
+
+		Assert.assertFalse(merged instanceof CompoundFitnesseResults);
+		Assert.assertEquals("b.xml", merged.getName());
+		Assert.assertEquals(1, merged.getLeafResults().size());
+		Assert.assertEquals(FitnesseResults.CARRIED_FORWARD, merged.getLeafResults().get(0).getOrigin());
+	}
+
+	@Test
+	public void mergeShouldCopyContentOfCarriedPages() throws Exception {
+		File previousDir = new File("target", "previous-build");
+		File rootDir = new File("target", "merged-build");
+		previousDir.mkdirs();
+		rootDir.mkdirs();
+		File content = new File(previousDir, "Suite.TestA");
+		Files.write(content.toPath(), "<p>html</p>".getBytes());
+		FitnesseResults previous = file("results.xml", new FitnesseResults(new Counts("Suite.TestA", "", 1, 0, 0, 0, 0,
+				content.getPath())));
+
+		FitnesseResults merged = CompoundFitnesseResults.mergeOver(previous, null, null, null, rootDir);
+
+		String contentFile = merged.getLeafResults().get(0).getPageCounts().contentFile;
+		Assert.assertEquals(new File(rootDir, "Suite.TestA").getAbsolutePath(), contentFile);
+		Assert.assertTrue(new File(contentFile).exists());
+	}
+}
@@ -0,0 +1,115 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EmbeddedFitnesseTest {
+	private File jar;
+
+	@Before
+	public void createJar() throws Exception {
+		jar = new File("target", "embedded-fitnesse.jar");
+		writeJar("a");
+	}
+
+	private void writeJar(String content) throws IOException {
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new ZipEntry("content.txt"));
+			out.write(content.getBytes());
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void loaderShouldBeKeptUntilJarChanges() throws Exception {
+		ClassLoader loader = EmbeddedFitnesse.getLoader(jar);
+		Assert.assertSame(loader, EmbeddedFitnesse.getLoader(jar));
+
+		writeJar("a longer content");
+		Assert.assertNotSame(loader, EmbeddedFitnesse.getLoader(jar));
+	}
+
+	@Test
+	public void loaderShouldNotSeeJenkinsClasses() throws Exception {
+		try {
+			EmbeddedFitnesse.getLoader(jar).loadClass(EmbeddedFitnesse.class.getName());
+			Assert.fail("plugin classes leaked into the FitNesse class loader");
+		} catch (ClassNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void launchShouldTellWhatFitnesseVersionIsNeeded() throws Exception {
+		try {
+			EmbeddedFitnesse.launch(jar, Arrays.asList("-c", "SuiteAll?suite&format=xml"));
+			Assert.fail("launched without FitNesse");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains(EmbeddedFitnesse.MAIN_CLASS));
+		}
+	}
+
+	@Test
+	public void taskShouldBeGivenUpOnAtTimeout() throws Exception {
+		final boolean[] interrupted = new boolean[1];
+		Integer result = EmbeddedFitnesse.runWithTimeout(new Callable<Integer>() {
+			public Integer call() {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					interrupted[0] = true;
+				}
+				return 0;
+			}
+		}, "hanging page", 100, 1000);
+
+		Assert.assertNull(result);
+		Assert.assertTrue(interrupted[0]);
+	}
+
+	@Test
+	public void taskShouldReturnItsResultInTime() throws Exception {
+		Assert.assertEquals(Integer.valueOf(3), EmbeddedFitnesse.runWithTimeout(new Callable<Integer>() {
+			public Integer call() {
+				return 3;
+			}
+		}, "quick page", 10000, 1000));
+	}
+
+	@Test
+	public void loaderInUseShouldOnlyBeClosedOnceReleased() throws Exception {
+		EmbeddedFitnesse.CachedLoader running = EmbeddedFitnesse.acquire(jar);
+
+		writeJar("a changed jar");
+		Assert.assertNotSame(running.loader, EmbeddedFitnesse.getLoader(jar));
+		Assert.assertNotNull(running.loader.getResource("content.txt"));
+
+		EmbeddedFitnesse.release(jar, running, false);
+		Assert.assertNull(running.loader.getResource("content.txt"));
+	}
+
+	@Test
+	public void loaderOfAbortedRunShouldNotBeHandedOutAgain() throws Exception {
+		EmbeddedFitnesse.CachedLoader aborted = EmbeddedFitnesse.acquire(jar);
+		EmbeddedFitnesse.CachedLoader other = EmbeddedFitnesse.acquire(jar);
+		Assert.assertSame(aborted, other);
+
+		EmbeddedFitnesse.release(jar, aborted, true);
+
+		Assert.assertNotSame(aborted.loader, EmbeddedFitnesse.getLoader(jar));
+		Assert.assertNotNull(other.loader.getResource("content.txt"));
+		EmbeddedFitnesse.release(jar, other, false);
+		Assert.assertNull(other.loader.getResource("content.txt"));
+	}
+}
@@ -0,0 +1,91 @@
+package hudson.plugins.fitnesse;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EndpointQueueTest {
+
+	@Test
+	public void pagesShouldBeTakenInOrderUntilNoneAreLeft() throws Exception {
+		EndpointQueue queue = new EndpointQueue(Arrays.asList("SuiteA", "SuiteB"), Arrays.asList("fitnesse1"), 2);
+
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		queue.done("SuiteA");
+		Assert.assertEquals("SuiteB", queue.take("fitnesse1"));
+		queue.done("SuiteB");
+		Assert.assertNull(queue.take("fitnesse1"));
+		Assert.assertEquals(Collections.emptyList(), queue.getRemaining());
+	}
+
+	@Test
+	public void cutOffPageShouldBeRetriedUpToMaxAttempts() throws Exception {
+		EndpointQueue queue = new EndpointQueue(Arrays.asList("SuiteA", "SuiteB"), Arrays.asList("fitnesse1"), 2);
+
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		Assert.assertTrue(queue.retry("SuiteA", "fitnesse1"));
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		Assert.assertFalse(queue.retry("SuiteA", "fitnesse1"));
+		Assert.assertEquals(Arrays.asList("SuiteB"), queue.getRemaining());
+	}
+
+	@Test
+	public void takeShouldWaitForPagesInProgressToComeBack() throws Exception {
+		final EndpointQueue queue = new EndpointQueue(Arrays.asList("SuiteA"), Arrays.asList("fitnesse1", "fitnesse2"), 2);
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		final String[] taken = new String[1];
+		Thread otherServer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					taken[0] = queue.take("fitnesse2");
+				} catch (InterruptedException e) {
+					// leave it null
+				}
+			}
+		};
+		otherServer.start();
+		Thread.sleep(100);
+		Assert.assertTrue(otherServer.isAlive());
+
+		queue.retry("SuiteA", "fitnesse1");
+		otherServer.join(1000);
+		Assert.assertEquals("SuiteA", taken[0]);
+	}
+
+	@Test
+	public void cutOffPageShouldBeLeftForAnotherServerWhileOneIsActive() throws Exception {
+		EndpointQueue queue = new EndpointQueue(Arrays.asList("SuiteA", "SuiteB"),
+				Arrays.asList("fitnesse1", "fitnesse2"), 3);
+
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		Assert.assertTrue(queue.retry("SuiteA", "fitnesse1"));
+		Assert.assertEquals("SuiteB", queue.take("fitnesse1"));
+		queue.done("SuiteB");
+		Assert.assertEquals("SuiteA", queue.take("fitnesse2"));
+		Assert.assertTrue(queue.retry("SuiteA", "fitnesse2"));
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		queue.done("SuiteA");
+		Assert.assertNull(queue.take("fitnesse2"));
+	}
+
+	@Test
+	public void cutOffPageShouldBeTakenAgainOnceNoOtherServerIsLeft() throws Exception {
+		EndpointQueue queue = new EndpointQueue(Arrays.asList("SuiteA"), Arrays.asList("fitnesse1", "fitnesse2"), 3);
+
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+		Assert.assertTrue(queue.retry("SuiteA", "fitnesse1"));
+		queue.leave("fitnesse2");
+		Assert.assertEquals("SuiteA", queue.take("fitnesse1"));
+	}
+
+	@Test
+	public void endpointShouldBeSplitIntoHostAndPort() {
+		Assert.assertEquals("fitnesse1.example.com", EndpointQueue.getHost("fitnesse1.example.com:8081"));
+		Assert.assertEquals(8081, EndpointQueue.getPort("fitnesse1.example.com:8081", 80));
+		Assert.assertEquals("fitnesse2", EndpointQueue.getHost("fitnesse2"));
+		Assert.assertEquals(8080, EndpointQueue.getPort("fitnesse2", 8080));
+	}
+}
@@ -0,0 +1,60 @@
+package hudson.plugins.fitnesse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FitnesseBuildWrapperTest {
+
+	@Test
+	public void startOptionsShouldStartFitnesseWithWrapperOptions() {
+		Map<String, String> options = new HashMap<String, String>();
+		options.put(FitnesseBuilder.PATH_TO_JAR, "lib/fitnesse.jar");
+		options.put(FitnesseBuilder.FITNESSE_PORT_LOCAL, "8082");
+		FitnesseBuilder startOptions = new FitnesseBuildWrapper(options).getStartOptions();
+
+		Assert.assertTrue(startOptions.getFitnesseStart());
+		Assert.assertEquals("lib/fitnesse.jar", startOptions.getFitnessePathToJar());
+		Assert.assertEquals("8082", startOptions.getFitnessePort());
+	}
+
+	@Test
+	public void instanceShouldBeAwaitedUntilProbeAnswers() throws Exception {
+		FutureTask<Boolean> ready = new FutureTask<Boolean>(new Callable<Boolean>() {
+			public Boolean call() {
+				return true;
+			}
+		});
+		FitnesseInstanceAction instance = new FitnesseInstanceAction("localhost", 8082, ready);
+		Assert.assertFalse(instance.isReady());
+
+		new Thread(ready).start();
+		Assert.assertTrue(instance.awaitReady());
+		Assert.assertTrue(instance.isReady());
+	}
+
+	@Test
+	public void instanceShouldOnlyBeTheOneAtItsHostAndPort() {
+		FitnesseInstanceAction instance = new FitnesseInstanceAction("localhost", 8082, null);
+
+		Assert.assertTrue(instance.isAt("localhost", 8082));
+		Assert.assertFalse(instance.isAt("localhost", 8080));
+		Assert.assertFalse(instance.isAt("fitnesse.example.com", 8082));
+	}
+
+	@Test
+	public void cancelledProbeShouldNotCountAsReady() throws Exception {
+		FutureTask<Boolean> ready = new FutureTask<Boolean>(new Callable<Boolean>() {
+			public Boolean call() {
+				return true;
+			}
+		});
+		ready.cancel(true);
+
+		Assert.assertFalse(new FitnesseInstanceAction("localhost", 8082, ready).awaitReady());
+	}
+}
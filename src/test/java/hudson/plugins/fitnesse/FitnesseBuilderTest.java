@@ -8,6 +8,7 @@ import hudson.util.DescribableList;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.junit.Assert;
@@ -96,6 +97,44 @@ public class FitnesseBuilderTest {
 		Assert.assertEquals(99, builder.getFitnessePort(envVars));
 	}
 
+	@Test
+	public void getTargetPagesShouldReturnOnePagePerLine() {
+		HashMap<String, String> options = new HashMap<String, String>();
+		FitnesseBuilder builder = new FitnesseBuilder(options);
+
+		options.put(FitnesseBuilder.TARGET_PAGE, "SuiteA\r\n  SuiteB?suite&suiteFilter=fast \n\n");
+		Assert.assertEquals(Arrays.asList("SuiteA", "SuiteB?suite&suiteFilter=fast"),
+				builder.getFitnesseTargetPages(new EnvVars()));
+
+		FitnesseBuilder targetBuilder = builder.forTarget("SuiteA", "results-SuiteA.xml");
+		Assert.assertEquals("SuiteA", targetBuilder.getFitnesseTargetPage());
+		Assert.assertEquals("results-SuiteA.xml", targetBuilder.getFitnessePathToXmlResultsOut());
+		Assert.assertEquals(2, builder.getFitnesseTargetPages(new EnvVars()).size());
+	}
+
+	@Test
+	public void tagLanesShouldSplitSuiteIntoOneLanePerGroupAndRemainder() {
+		HashMap<String, String> options = new HashMap<String, String>();
+		FitnesseBuilder builder = new FitnesseBuilder(options);
+		options.put(FitnesseBuilder.TARGET_PAGE, "SuiteAll");
+		options.put(FitnesseBuilder.TARGET_IS_SUITE, "true");
+		options.put(FitnesseBuilder.TAG_LANES, "teamA, teamB\n\n smoke,\n");
+
+		Assert.assertEquals(Arrays.asList("SuiteAll&suiteFilter=teamA,teamB",
+				"SuiteAll&suiteFilter=smoke&excludeSuiteFilter=teamA,teamB",
+				"SuiteAll&excludeSuiteFilter=teamA,teamB,smoke"), builder.getFitnesseLaneTargetPages(new EnvVars()));
+
+		options.put(FitnesseBuilder.TARGET_IS_SUITE, "false");
+		Assert.assertEquals(Arrays.asList("SuiteAll"), builder.getFitnesseLaneTargetPages(new EnvVars()));
+	}
+
+	@Test
+	public void laneTagsShouldBeEncodedForTheQueryString() {
+		Assert.assertEquals(Arrays.asList("SuiteAll&suiteFilter=team+A,c%26d",
+				"SuiteAll&excludeSuiteFilter=team+A,c%26d"),
+				FitnesseBuilder.getLanes("SuiteAll", Arrays.asList("team A,c&d")));
+	}
+
 	@Test
 	public void getHostShouldReturnLocalHostIfStartBuildIsTrue() {
 		HashMap<String, String> options = new HashMap<String, String>();
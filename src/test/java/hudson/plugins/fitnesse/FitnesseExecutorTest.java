@@ -2,19 +2,29 @@ package hudson.plugins.fitnesse;
 
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Proc;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.StreamBuildListener;
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+import hudson.plugins.fitnesse.StreamingResultsParser.PageListener;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.io.IOUtils;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Before;
@@ -22,6 +32,10 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class FitnesseExecutorTest {
 
 	private static final String TMP_DIR = System.getProperty("java.io.tmpdir");
@@ -69,6 +83,25 @@ public class FitnesseExecutorTest {
 		Assert.assertEquals("9999", cmd.get(8));
 	}
 
+	@Test
+	public void commandModeCmdShouldExecuteTargetPageIntoResultsFile() throws IOException, InterruptedException {
+		init(new String[] { FitnesseBuilder.JAVA_OPTS, FitnesseBuilder.PATH_TO_ROOT, FitnesseBuilder.PATH_TO_JAR,
+				FitnesseBuilder.FITNESSE_PORT, FitnesseBuilder.TARGET_PAGE, FitnesseBuilder.TARGET_IS_SUITE },
+				new String[] { "", getTestResourceFitNesseRoot(), getTestResourceFitnesseJar(), "9999", "SuiteAll", "true" });
+		FilePath workingDirectory = new FilePath(new File(TMP_DIR));
+		FilePath resultsFile = new FilePath(new File(TMP_DIR, "results.xml"));
+		ArrayList<String> cmd = executor.getJavaCommandModeCmd(workingDirectory, resultsFile);
+
+		Assert.assertEquals("-jar", cmd.get(1));
+		Assert.assertEquals("-p", cmd.get(7));
+		Assert.assertEquals("9999", cmd.get(8));
+		Assert.assertEquals("-c", cmd.get(9));
+		Assert.assertEquals("SuiteAll?suite&format=xml&includehtml", cmd.get(10));
+		Assert.assertEquals("-b", cmd.get(11));
+		Assert.assertEquals(resultsFile.getRemote(), cmd.get(12));
+		Assert.assertEquals(13, cmd.size());
+	}
+
 	private static String getTestResourceFitnesseJar() {
 		return new File(new File(System.getProperty("user.dir")), "target/test-classes/fitnesse.jar").getAbsolutePath();
 	}
@@ -216,6 +249,29 @@ public class FitnesseExecutorTest {
 		Assert.assertEquals("/WikiPage?suite&suiteFilter=tag1,tag2&format=xml&includehtml", executor.getFitnessePageCmd());
 	}
 
+	@Test
+	public void fitnessePageCmdShouldBeFirstOfSeveralTargetPages() {
+		init(new String[] { FitnesseBuilder.TARGET_PAGE, FitnesseBuilder.TARGET_IS_SUITE }, new String[] {
+				"SuiteA\nSuiteB", "true" });
+		Assert.assertEquals("/SuiteA?suite&format=xml&includehtml", executor.getFitnessePageCmd());
+		Assert.assertEquals("/SuiteA", executor.getFitnessePageBase());
+	}
+
+	@Test
+	public void pageCmdShouldExecuteSinglePageAsSuite() {
+		Assert.assertEquals("/SuiteAll.TestOne?suite&format=xml&includehtml",
+				FitnesseExecutor.getFitnessePageTestCmd("SuiteAll.TestOne"));
+	}
+
+	@Test
+	public void targetResultsPathShouldBeNamedAfterTargetPage() {
+		Assert.assertEquals("out/fitnesse-results-ParentWiki.SuiteA.xml",
+				FitnesseExecutor.getTargetResultsPath("out/fitnesse-results.xml", "ParentWiki.SuiteA"));
+		Assert.assertEquals("results-SuiteA_suite_suiteFilter_fast.XML",
+				FitnesseExecutor.getTargetResultsPath("results.XML", "SuiteA?suite&suiteFilter=fast"));
+		Assert.assertEquals("results-*", FitnesseExecutor.getTargetResultsPath("results", "*"));
+	}
+
 	@Test
 	public void fitnesseStartedShouldBeTrue() throws Exception {
 		init(new String[] {}, new String[] {});
@@ -252,6 +308,120 @@ public class FitnesseExecutorTest {
 		Assert.assertTrue(resetWasCalled);
 	}
 
+	@Test
+	public void stopFitnesseShouldAskServerToShutDownBeforeKillingWhatIsLeft() throws Exception {
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final FakeProc proc = new FakeProc(calls);
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				calls.add(exchange.getRequestURI().getQuery());
+				proc.alive = false;
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		try {
+			init(new String[] { FitnesseBuilder.FITNESSE_HOST, FitnesseBuilder.FITNESSE_PORT_REMOTE }, new String[] {
+					"localhost", String.valueOf(server.getAddress().getPort()) });
+			executor.stopFitnesse(null, proc, true);
+
+			Assert.assertEquals(Arrays.asList("responder=shutdown", "kill"), calls);
+			Assert.assertTrue(output.toString().contains("FitNesse shut down in "));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void stopFitnesseShouldKillCommandModeWithoutAskingIt() throws Exception {
+		init(new String[] {}, new String[] {});
+		List<String> calls = new ArrayList<String>();
+		executor.stopFitnesse(null, new FakeProc(calls), false);
+
+		Assert.assertEquals(Arrays.asList("kill"), calls);
+		Assert.assertTrue(output.toString().contains("FitNesse was killed in "));
+	}
+
+	private static class FakeProc extends Proc {
+		private final List<String> calls;
+		volatile boolean alive = true;
+
+		FakeProc(List<String> calls) {
+			this.calls = calls;
+		}
+
+		@Override
+		public boolean isAlive() {
+			return alive;
+		}
+
+		@Override
+		public void kill() {
+			calls.add("kill");
+			alive = false;
+		}
+
+		@Override
+		public int join() {
+			return 0;
+		}
+
+		@Override
+		public InputStream getStdout() {
+			return null;
+		}
+
+		@Override
+		public InputStream getStderr() {
+			return null;
+		}
+
+		@Override
+		public OutputStream getStdin() {
+			return null;
+		}
+	}
+
+	@Test
+	public void downloadShouldDisconnectWhenFailFastThresholdIsReached() throws Exception {
+		init(new String[] {}, new String[] {});
+		final byte[] results = IOUtils.toByteArray(getClass().getResourceAsStream("fitnesse-suite-results.xml"));
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream body = exchange.getResponseBody();
+				try {
+					body.write(results);
+				} catch (IOException e) {
+					// client disconnected
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		try {
+			final List<Counts> pages = new ArrayList<Counts>();
+			StreamingResultsParser parser = new StreamingResultsParser(new PageListener() {
+				public void pageCompleted(Counts page, byte[] resultElement) throws IOException {
+					pages.add(page);
+					if (pages.size() == 2)
+						throw new FitnesseExecutor.FailFastException(2);
+				}
+			});
+			executor.download(new URL("http://localhost:" + server.getAddress().getPort() + "/SuiteAll?suite"),
+					Mockito.mock(Resettable.class), 60 * 1000, parser, new ProgressReporter(logger));
+
+			Assert.assertEquals(2, pages.size());
+			Assert.assertTrue(output.toString().contains("reached the fail-fast threshold, disconnecting"));
+		} finally {
+			server.stop(0);
+		}
+	}
+
 	@Test
 	public void filepathShouldReturnFileAbsolutePathWhenPathIsAbsolute() throws Exception {
 		FilePath workingDirectory = new FilePath(new File(System.getProperty("user.home")));
@@ -282,4 +452,10 @@ public class FitnesseExecutorTest {
 
 		//System.out.println(output);
 	}
+
+	@Test
+	public void missingPagesShouldKeepRequestedOrder() {
+		Assert.assertEquals(Arrays.asList("S.TestC", "S.TestA"), FitnesseExecutor.getMissingPages(
+				Arrays.asList("S.TestC", "S.TestB", "S.TestA"), Collections.singleton("S.TestB")));
+	}
 }
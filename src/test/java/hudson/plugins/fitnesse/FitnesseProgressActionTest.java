@@ -0,0 +1,80 @@
+package hudson.plugins.fitnesse;
+
+import hudson.model.AbstractBuild;
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class FitnesseProgressActionTest {
+
+	private static Counts page(String name, int wrong, int duration) {
+		return new Counts(name, "20100320184439", 1, wrong, 0, 0, duration, null);
+	}
+
+	private static FitnesseResults previousResults() {
+		FitnesseResults file = new FitnesseResults(new Counts("results.xml", "", 0, 0, 0, 0, 0, null));
+		file.addChild(new FitnesseResults(page("S.TestA", 0, 1000)));
+		file.addChild(new FitnesseResults(page("S.TestB", 0, 3000)));
+		file.addChild(new FitnesseResults(page("S.TestC", 0, 6000)));
+		return file;
+	}
+
+	@Test
+	public void completedPagesShouldBeCounted() {
+		FitnesseProgressAction progress = new FitnesseProgressAction(null, null);
+		progress.pageCompleted(page("S.TestA", 0, 10));
+		progress.pageCompleted(page("S.TestB", 2, 10));
+
+		Assert.assertEquals(2, progress.getPagesDone());
+		Assert.assertEquals(1, progress.getFailedPages());
+		Assert.assertEquals("S.TestB", progress.getLastPage());
+		Assert.assertEquals(-1, progress.getEtaMillis(1000));
+	}
+
+	@Test
+	public void etaShouldScaleHistoricalDurationsOfRemainingPages() {
+		FitnesseProgressAction progress = new FitnesseProgressAction(null, previousResults());
+		Assert.assertEquals(3, progress.getExpectedPages());
+		Assert.assertEquals(10000 - 500, progress.getEtaMillis(500));
+
+		progress.pageCompleted(page("S.TestA", 0, 2000));
+		progress.pageCompleted(page("S.TestB", 0, 6000));
+		// executing twice as slow as the earlier build
+		Assert.assertEquals(12000, progress.getEtaMillis(8000));
+	}
+
+	@Test
+	public void etaShouldOnlyCountExpectedPages() {
+		FitnesseProgressAction progress = new FitnesseProgressAction(null, previousResults());
+		progress.expectPages(Arrays.asList("S.TestA", "S.TestC", "S.TestNew"));
+		Assert.assertEquals(3, progress.getExpectedPages());
+
+		progress.pageCompleted(page("S.TestA", 0, 1000));
+		Assert.assertEquals(6000, progress.getEtaMillis(1000));
+	}
+
+	@Test
+	public void progressOfEachStepShouldHaveItsOwnPanel() {
+		AbstractBuild<?, ?> build = Mockito.mock(AbstractBuild.class);
+		FitnesseProgressAction first = new FitnesseProgressAction(build, null);
+		Mockito.when(build.getActions(FitnesseProgressAction.class)).thenReturn(Arrays.asList(first));
+		FitnesseProgressAction second = new FitnesseProgressAction(build, null);
+
+		Assert.assertEquals("fitnesseProgress", first.getUrlName());
+		Assert.assertEquals("fitnesse-progress", first.getPanelId());
+		Assert.assertEquals("fitnesseProgress1", second.getUrlName());
+		Assert.assertEquals("fitnesse-progress-1", second.getPanelId());
+	}
+
+	@Test
+	public void buildShouldBeRestoredOnLoad() {
+		AbstractBuild<?, ?> build = Mockito.mock(AbstractBuild.class);
+		FitnesseProgressAction progress = new FitnesseProgressAction(null, null);
+		progress.onLoad(build);
+		Assert.assertSame(build, progress.getBuild());
+	}
+}
@@ -1,14 +1,22 @@
 package hudson.plugins.fitnesse;
 
+import static org.mockito.Mockito.when;
 import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.tasks.test.TestResult;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 public class FitnesseResultsRecorderTest {
 
@@ -40,6 +48,48 @@ public class FitnesseResultsRecorderTest {
 		Assert.assertEquals(2, children.size());
 	}
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void eachStepShouldMergeItsOwnResultsFile() throws Exception {
+		File dir = new File("target", "two-steps");
+		FileUtils.deleteDirectory(dir);
+		dir.mkdirs();
+		File suiteResults = new File("src/test/resources/hudson/plugins/fitnesse/fitnesse-suite-results.xml");
+		FileUtils.copyFile(suiteResults, new File(dir, "step1-results.xml"));
+		FileUtils.copyFile(suiteResults, new File(dir, "step2-results.xml"));
+		FilePath[] resultFiles = { new FilePath(new File(dir, "step1-results.xml")),
+				new FilePath(new File(dir, "step2-results.xml")) };
+		FitnesseResultsRecorder recorder = new FitnesseResultsRecorder("step*-results.xml");
+
+		AbstractBuild previousBuild = Mockito.mock(AbstractBuild.class);
+		when(previousBuild.getAction(FitnesseResultsAction.class)).thenReturn(
+				new FitnesseResultsAction(previousBuild, recorder.getResults(System.out, resultFiles, dir)));
+		AbstractProject project = Mockito.mock(AbstractProject.class);
+		when(project.getBuildByNumber(1)).thenReturn(previousBuild);
+		AbstractBuild build = Mockito.mock(AbstractBuild.class);
+		when(build.getParent()).thenReturn(project);
+		when(build.getRootDir()).thenReturn(dir);
+		when(build.getActions(FitnesseMergeAction.class)).thenReturn(Arrays.asList(
+				new FitnesseMergeAction(1, FitnesseResults.RERUN, null, Collections.<String> emptyList(),
+						"step1-results.xml"),
+				new FitnesseMergeAction(1, FitnesseResults.REUSED, FitnesseResults.REUSED,
+						Collections.<String> emptyList(), "step2-results.xml")));
+
+		FitnesseResults results = recorder.getResults(System.out, build, resultFiles,
+				new File(dir, NativePageCounts.WRITE_LOG));
+		List<FitnesseResults> files = results.getChildResults();
+		Assert.assertEquals(2, files.size());
+		Assert.assertEquals("step1-results.xml", files.get(0).getName());
+		Assert.assertEquals("step2-results.xml", files.get(1).getName());
+		Assert.assertEquals(14, files.get(0).getLeafResults().size());
+		for (FitnesseResults page : files.get(0).getLeafResults()) {
+			Assert.assertEquals(FitnesseResults.RERUN, page.getOrigin());
+		}
+		for (FitnesseResults page : files.get(1).getLeafResults()) {
+			Assert.assertEquals(FitnesseResults.REUSED, page.getOrigin());
+		}
+	}
+
 	@Before
 	public void startPlugin() throws Exception {
 		new FitnessePlugin().start();
@@ -2,6 +2,7 @@ package hudson.plugins.fitnesse;
 
 import hudson.plugins.fitnesse.NativePageCounts.Counts;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.junit.Assert;
@@ -147,4 +148,15 @@ public class FitnesseResultsTest {
 		Assert.assertEquals(0, second.millisAfter(second));
 	}
 
+
+	@Test
+	public void endpointShouldBeTakenFromTheStepThatExecutedThePage() {
+		FitnesseExecutionAction localStep = new FitnesseExecutionAction();
+		FitnesseExecutionAction farmStep = new FitnesseExecutionAction();
+		farmStep.setPageEndpoint("SuiteA.PageOne", "fitnesse2:8080");
+
+		Assert.assertEquals("fitnesse2:8080",
+				FitnesseResults.getEndpoint(Arrays.asList(localStep, farmStep), "SuiteA.PageOne"));
+		Assert.assertNull(FitnesseResults.getEndpoint(Arrays.asList(localStep, farmStep), "SuiteA.PageTwo"));
+	}
 }
@@ -1,10 +1,15 @@
 package hudson.plugins.fitnesse;
 
+import hudson.FilePath;
 import hudson.model.FreeStyleBuild;
+import hudson.model.Label;
+import hudson.model.Node;
 import hudson.model.Result;
 import hudson.model.FreeStyleProject;
 import hudson.plugins.fitnesse.NativePageCounts.Counts;
 
+import java.util.List;
+
 import org.jvnet.hudson.test.HudsonTestCase;
 
 public class HudsonDependentTest extends HudsonTestCase {
@@ -17,6 +22,26 @@ public class HudsonDependentTest extends HudsonTestCase {
 		assertSame(parent.getOwner(), child.getOwner());
 	}
 
+	public void testShardsOnAgentsOfTheSameHostShouldGetCopiesOfTheirOwn() throws Exception {
+		createOnlineSlave(Label.get("fitnesse-shard"));
+		createOnlineSlave(Label.get("fitnesse-shard"));
+		FilePath workspace = new FilePath(createTmpDir());
+		workspace.child("FitNesseRoot").child("content.txt").write("!contents", "UTF-8");
+		workspace.child("fitnesse.jar").write("jar", "UTF-8");
+		workspace.child("target").child("build.log").write("not needed by shards", "UTF-8");
+
+		List<Node> nodes = Shards.getOnlineNodes("fitnesse-shard");
+		assertEquals(2, nodes.size());
+		assertFalse(nodes.get(0).getRootPath().equals(nodes.get(1).getRootPath()));
+		for (Node node : nodes) {
+			FilePath copy = node.getRootPath().child(Shards.DIR).child(getName());
+			workspace.copyRecursiveTo(Shards.getCopyIncludes("FitNesseRoot", "fitnesse.jar", ""), copy);
+			assertTrue(copy.child("FitNesseRoot").child("content.txt").exists());
+			assertTrue(copy.child("fitnesse.jar").exists());
+			assertFalse(copy.child("target").exists());
+		}
+	}
+
 	//	public void testBuildStartingFitnesseWithAbsoluteAndRelativePaths() throws Exception {
 	//		FreeStyleProject project = createFreeStyleProject(getName());
 	//		project.getBuildersList().clear();
@@ -0,0 +1,51 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JarCacheTest {
+
+	@Test
+	public void identicalJarsShouldShareOneCachedCopy() throws Exception {
+		File dir = new File("target", "jar-cache");
+		FileUtils.deleteDirectory(dir);
+		File cacheDir = new File(dir, JarCache.DIR);
+		File jar1 = writeJar(new File(dir, "job1/fitnesse.jar"), "v1");
+		File jar2 = writeJar(new File(dir, "job2/fitnesse.jar"), "v1");
+
+		File cached1 = JarCache.get(cacheDir, jar1, 10);
+		File cached2 = JarCache.get(cacheDir, jar2, 10);
+
+		Assert.assertEquals(cached1, cached2);
+		Assert.assertEquals("v1", new String(Files.readAllBytes(cached1.toPath())));
+		Assert.assertEquals(1, cacheDir.list().length);
+		Assert.assertEquals(1, cached1.getParentFile().list().length);
+	}
+
+	@Test
+	public void leastRecentlyUsedJarsShouldBeEvicted() throws Exception {
+		File dir = new File("target", "jar-cache-eviction");
+		FileUtils.deleteDirectory(dir);
+		File cacheDir = new File(dir, JarCache.DIR);
+
+		File oldest = JarCache.get(cacheDir, writeJar(new File(dir, "fitnesse.jar"), "v1"), 2);
+		oldest.getParentFile().setLastModified(System.currentTimeMillis() - 3000);
+		File used = JarCache.get(cacheDir, writeJar(new File(dir, "fitnesse.jar"), "v2"), 2);
+		used.getParentFile().setLastModified(System.currentTimeMillis() - 2000);
+		File newest = JarCache.get(cacheDir, writeJar(new File(dir, "fitnesse.jar"), "v3"), 2);
+
+		Assert.assertFalse(oldest.exists());
+		Assert.assertTrue(used.exists());
+		Assert.assertTrue(newest.exists());
+	}
+
+	private static File writeJar(File jar, String content) throws Exception {
+		jar.getParentFile().mkdirs();
+		Files.write(jar.toPath(), content.getBytes());
+		return jar;
+	}
+}
@@ -0,0 +1,37 @@
+package hudson.plugins.fitnesse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LaunchLimiterTest {
+
+	@Test
+	public void firstMatchingLabelShouldOverrideDefaultLimit() {
+		String labelLimits = "small=1\nbigmem = 6\nbroken=x\nlinux=2";
+
+		Assert.assertEquals(6, LaunchLimiter.getLimit(Arrays.asList("linux", "bigmem"), labelLimits, 3));
+		Assert.assertEquals(2, LaunchLimiter.getLimit(Arrays.asList("linux", "broken"), labelLimits, 3));
+		Assert.assertEquals(3, LaunchLimiter.getLimit(Collections.<String> emptyList(), labelLimits, 3));
+	}
+
+	@Test
+	public void launchesShouldShareTheLimitOfTheirNode() throws Exception {
+		Semaphore first = LaunchLimiter.acquire("limited-node", 2);
+		Semaphore second = LaunchLimiter.acquire("limited-node", 2);
+
+		Assert.assertSame(first, second);
+		Assert.assertEquals(0, first.availablePermits());
+		Assert.assertNotSame(first, LaunchLimiter.acquire("other-node", 2));
+		first.release();
+		second.release();
+	}
+
+	@Test
+	public void unlimitedNodeShouldNotWait() throws Exception {
+		Assert.assertNull(LaunchLimiter.acquire("unlimited-node", 0));
+	}
+}
@@ -1,10 +1,17 @@
 package hudson.plugins.fitnesse;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
 
 import javax.xml.transform.dom.DOMResult;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -110,6 +117,46 @@ public class NativePageCountsParserTest {
 		Assert.assertEquals(1, testResults.getSummary().duration);
 	}
 
+	@Test
+	public void parserShouldListWrittenPagesInWriteLogInsteadOfConsole() throws Exception {
+		File rootDir = new File("target", "write-log");
+		FileUtils.deleteDirectory(rootDir);
+		rootDir.mkdirs();
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		InputStream sampleXml = getClass().getResourceAsStream("fitnesse-suite-results.xml");
+		fitnesseParser.parse(sampleXml, "testResult.xml", new PrintStream(console), rootDir.getPath() + File.separator);
+
+		List<String> written = Files.readAllLines(new File(rootDir, NativePageCounts.WRITE_LOG).toPath(),
+				Charset.defaultCharset());
+		Assert.assertEquals(15, written.size());
+		Assert.assertEquals(2, console.toString().split("\n").length);
+		Assert.assertTrue(console.toString().contains("Wrote content of "));
+	}
+
+	@Test
+	public void parserShouldAppendWrittenPagesToGivenWriteLogInBytes() throws Exception {
+		File rootDir = new File("target", "write-log-root");
+		File artifactsDir = new File("target", "write-log-archive");
+		FileUtils.deleteDirectory(rootDir);
+		FileUtils.deleteDirectory(artifactsDir);
+		rootDir.mkdirs();
+		File writeLog = new File(artifactsDir, NativePageCounts.WRITE_LOG);
+		String results = RESULTS.replace("waferslim.fixtures", "w\u00e4ferslim.fixtures");
+		for (int run = 0; run < 2; ++run) {
+			fitnesseParser.parse(new ByteArrayInputStream(results.getBytes("UTF-8")), "testResult.xml",
+					new PrintStream(new ByteArrayOutputStream()), rootDir.getPath() + File.separator,
+					writeLog.getPath());
+		}
+
+		List<String> written = Files.readAllLines(writeLog.toPath(), Charset.defaultCharset());
+		Assert.assertEquals(4, written.size());
+		Assert.assertFalse(new File(rootDir, NativePageCounts.WRITE_LOG).exists());
+		File content = new File(rootDir, "WikiName.SuiteBlah.SuiteAll.TestBlah");
+		String html = results.substring(results.indexOf("<![CDATA[") + 9, results.indexOf("]]>"));
+		Assert.assertEquals(content.getPath() + " " + html.getBytes(Charset.defaultCharset()).length, written.get(1));
+		Assert.assertEquals(content.length(), html.getBytes(Charset.defaultCharset()).length);
+	}
+
 	private ByteArrayInputStream toInputStream(String aString) {
 		return toInputStream(aString.getBytes());
 	}
@@ -0,0 +1,72 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PageHashesTest {
+
+	@Test
+	public void hashesShouldChangeWithPageContentOnly() throws Exception {
+		File fitnesseRoot = new File("target", "page-hashes/FitNesseRoot");
+		FileUtils.deleteDirectory(fitnesseRoot);
+		File suite = new File(fitnesseRoot, "SuiteAll");
+		new File(suite, "TestOne").mkdirs();
+		Files.write(new File(suite, "content.txt").toPath(), "!contents".getBytes());
+		Files.write(new File(suite, "TestOne/content.txt").toPath(), "|script|".getBytes());
+		Files.write(new File(suite, "SetUp.wiki").toPath(), "|import|".getBytes());
+		new File(fitnesseRoot, "files").mkdirs();
+		Files.write(new File(fitnesseRoot, "files/Data.wiki").toPath(), "not a page".getBytes());
+
+		Map<String, String> before = new PageHashes.HashPages().invoke(fitnesseRoot, null);
+		Files.write(new File(suite, "SetUp.wiki").toPath(), "|import|fixtures|".getBytes());
+		Map<String, String> after = new PageHashes.HashPages().invoke(fitnesseRoot, null);
+
+		Assert.assertEquals(Arrays.asList("SuiteAll", "SuiteAll.SetUp", "SuiteAll.TestOne"),
+				Arrays.asList(before.keySet().toArray()));
+		Assert.assertEquals(Collections.singleton("SuiteAll.SetUp"), PageHashes.getChangedPages(before, after));
+	}
+
+	@Test
+	public void changedPagesShouldIncludeAddedAndRemovedPages() {
+		Map<String, String> before = new TreeMap<String, String>(), after = new TreeMap<String, String>();
+		before.put("S.TestA", "1");
+		before.put("S.TestB", "2");
+		after.put("S.TestB", "2");
+		after.put("S.TestC", "3");
+
+		Assert.assertEquals(Arrays.asList("S.TestA", "S.TestC"),
+				Arrays.asList(PageHashes.getChangedPages(before, after).toArray()));
+	}
+
+	@Test
+	public void changedSetUpShouldImpactTestsBelowItsParent() {
+		List<String> tests = Arrays.asList("S.A.TestOne", "S.A.B.TestTwo", "S.C.TestThree", "S.TestFour");
+
+		Assert.assertEquals(Arrays.asList("S.TestFour"),
+				Arrays.asList(PageHashes.getImpactedTests(Arrays.asList("S.TestFour"), tests).toArray()));
+		Assert.assertEquals(Arrays.asList("S.A.B.TestTwo", "S.A.TestOne"),
+				Arrays.asList(PageHashes.getImpactedTests(Arrays.asList("S.A.SetUp"), tests).toArray()));
+		Assert.assertEquals(4, PageHashes.getImpactedTests(Arrays.asList("S"), tests).size());
+	}
+
+	@Test
+	public void savedHashesShouldLoadAgain() throws Exception {
+		File buildDir = new File("target", "page-hashes-build");
+		buildDir.mkdirs();
+		Map<String, String> hashes = new TreeMap<String, String>();
+		hashes.put("S.TestA", "0cc175b9c0f1b6a831c399e269772661");
+
+		PageHashes.save(buildDir, hashes);
+
+		Assert.assertEquals(hashes, PageHashes.load(buildDir));
+	}
+}
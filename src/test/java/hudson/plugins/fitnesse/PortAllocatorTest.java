@@ -0,0 +1,25 @@
+package hudson.plugins.fitnesse;
+
+import java.net.ServerSocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PortAllocatorTest {
+
+	@Test
+	public void reservedPortsShouldBeFreeAndDistinct() throws Exception {
+		int first = new PortAllocator.Reserve().call();
+		int second = new PortAllocator.Reserve().call();
+		try {
+			Assert.assertFalse(first == second);
+			Assert.assertTrue(PortAllocator.isReserved(first));
+			new ServerSocket(first).close();
+		} finally {
+			new PortAllocator.Release(first).call();
+			new PortAllocator.Release(second).call();
+		}
+		Assert.assertFalse(PortAllocator.isReserved(first));
+		Assert.assertFalse(PortAllocator.isReserved(second));
+	}
+}
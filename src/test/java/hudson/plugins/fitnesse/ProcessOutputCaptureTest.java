@@ -0,0 +1,77 @@
+package hudson.plugins.fitnesse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessOutputCaptureTest {
+	private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = new File("target", "output-capture");
+		FileUtils.deleteDirectory(dir);
+		dir.mkdirs();
+	}
+
+	@Test
+	public void captureShouldKeepAllOutputAndShowOnlyMatchingLinesAndTail() throws Exception {
+		ProcessOutputCapture capture = new ProcessOutputCapture(dir, new PrintStream(console), 10, Pattern.compile("ERROR"),
+				ProcessOutputCapture.DEFAULT_SEGMENT_BYTES);
+		capture.write("starting\r\nERROR: no fixture\nrunning\nstopped\n".getBytes());
+		Assert.assertEquals("ERROR: no fixture" + System.lineSeparator(), console.toString());
+
+		capture.close();
+		Assert.assertTrue(console.toString().endsWith("KB:" + System.lineSeparator() + "g\nstopped\n"));
+		Assert.assertEquals("starting\r\nERROR: no fixture\nrunning\nstopped\n", read(capture.getFiles().get(0)));
+	}
+
+	@Test
+	public void linesOfStdoutAndStderrShouldNotCutEachOther() throws Exception {
+		ProcessOutputCapture capture = new ProcessOutputCapture(dir, new PrintStream(console), 0, Pattern.compile("ERROR"),
+				ProcessOutputCapture.DEFAULT_SEGMENT_BYTES);
+		OutputStream stdout = capture.newStream();
+		OutputStream stderr = capture.newStream();
+		stdout.write("running Test".getBytes());
+		stderr.write("ERROR: no ".getBytes());
+		stdout.write("Blah\n".getBytes());
+		stderr.write("fixture\n".getBytes());
+		capture.close();
+
+		Assert.assertTrue(console.toString().startsWith("ERROR: no fixture" + System.lineSeparator()));
+		Assert.assertEquals("running TestERROR: no Blah\nfixture\n", read(capture.getFiles().get(0)));
+	}
+
+	@Test
+	public void captureShouldRollOverAndKeepTwoFiles() throws Exception {
+		ProcessOutputCapture capture = new ProcessOutputCapture(dir, new PrintStream(console), 0, null, 10);
+		capture.write("first line\n".getBytes());
+		capture.write("second\n".getBytes());
+		capture.write("third\n".getBytes());
+		capture.close();
+
+		Assert.assertEquals(2, capture.getFiles().size());
+		Assert.assertEquals("second\n", read(capture.getFiles().get(0)));
+		Assert.assertEquals("third\n", read(capture.getFiles().get(1)));
+	}
+
+	private static String read(File file) throws Exception {
+		GZIPInputStream in = new GZIPInputStream(new FileInputStream(file));
+		try {
+			return new String(IOUtils.toByteArray(in));
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package hudson.plugins.fitnesse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProgressReporterTest {
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final ProgressReporter reporter = new ProgressReporter(new PrintStream(output), 10000, 0);
+
+	@Test
+	public void reporterShouldPrintAtMostOneLinePerInterval() {
+		for (long now = 0; now < 25000; now += 10) {
+			reporter.bytesReceived(1024, now);
+		}
+
+		Assert.assertEquals(2, output.toString().split("\n").length);
+	}
+
+	@Test
+	public void statusShouldShowBytesRateAndPages() {
+		reporter.bytesReceived(20 * 1024, 100);
+		reporter.pageCompleted();
+		reporter.pageCompleted();
+
+		Assert.assertEquals("", output.toString());
+		Assert.assertEquals("Received 20 KB in 2 s (10 KB/s), 2 pages", reporter.getStatus(2000));
+	}
+}
@@ -0,0 +1,70 @@
+package hudson.plugins.fitnesse;
+
+import hudson.FilePath;
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+import hudson.remoting.VirtualChannel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultsCacheTest {
+
+	@Test
+	public void treeDigestShouldIgnoreFilesWrittenByFitnesse() throws Exception {
+		File fitnesseRoot = new File("target", "results-cache/FitNesseRoot");
+		FileUtils.deleteDirectory(fitnesseRoot);
+		new File(fitnesseRoot, "SuiteAll/TestOne").mkdirs();
+		new File(fitnesseRoot, "files/testResults/SuiteAll").mkdirs();
+		Files.write(new File(fitnesseRoot, "SuiteAll/TestOne/content.txt").toPath(), "|script|".getBytes());
+		String digest = new ResultsCache.DigestTree().invoke(fitnesseRoot, null);
+
+		Files.write(new File(fitnesseRoot, "files/testResults/SuiteAll/20100307181143_1_0_0_0.xml").toPath(),
+				"<testResults/>".getBytes());
+		new File(fitnesseRoot, "ErrorLogs").mkdirs();
+		Assert.assertEquals(digest, new ResultsCache.DigestTree().invoke(fitnesseRoot, null));
+
+		Files.write(new File(fitnesseRoot, "SuiteAll/TestOne/content.txt").toPath(), "|script|x|".getBytes());
+		Assert.assertFalse(digest.equals(new ResultsCache.DigestTree().invoke(fitnesseRoot, null)));
+	}
+
+	@Test
+	public void sutArtifactsShouldBeKeyedRelativeToWorkspace() {
+		Assert.assertEquals("target/sut.jar",
+				ResultsCache.getRelativePath(remote("/var/ws"), remote("/var/ws/target/sut.jar")));
+		Assert.assertEquals("target/sut.jar",
+				ResultsCache.getRelativePath(remote("/var/ws@2/"), remote("/var/ws@2/target/sut.jar")));
+		Assert.assertEquals("target/sut.jar",
+				ResultsCache.getRelativePath(remote("C:\\ws"), remote("C:\\ws\\target\\sut.jar")));
+	}
+
+	private static FilePath remote(String path) {
+		return new FilePath((VirtualChannel) null, path);
+	}
+
+	@Test
+	public void resultElementShouldReadBackAsSamePage() throws Exception {
+		Counts counts = new Counts("SuiteAll.TestOne", "20100307181143", 1, 2, 3, 4, 5, null);
+		byte[] element = ResultsXmlWriter.resultElement(counts, "<p>a ]]> in the html</p>");
+
+		Counts parsed = StreamingResultsParser.parseResult(element);
+		Assert.assertEquals("SuiteAll.TestOne", parsed.page);
+		Assert.assertEquals("20100307181143", parsed.resultsDate);
+		Assert.assertEquals(2, parsed.wrong);
+		Assert.assertEquals(5, parsed.duration);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ResultsXmlWriter writer = new ResultsXmlWriter(out, "SuiteAll");
+		writer.append(counts, element);
+		writer.close();
+		NativePageCounts pageCounts = new NativePageCountsParser().parse(new ByteArrayInputStream(out.toByteArray()),
+				"results.xml", System.out, "./target/");
+		Assert.assertEquals("<p>a ]]> in the html</p>", new String(Files.readAllBytes(new File(
+				pageCounts.getDetails().get(0).contentFile).toPath())));
+	}
+}
@@ -0,0 +1,86 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RootSnapshotTest {
+
+	@Test
+	public void snapshotShouldLinkPagesAndCopyRewrittenFiles() throws Exception {
+		File dir = new File("target", "root-snapshot");
+		FileUtils.deleteDirectory(dir);
+		File fitnesseRoot = new File(dir, "FitNesseRoot");
+		new File(fitnesseRoot, "SuiteAll/TestOne").mkdirs();
+		new File(fitnesseRoot, "RecentChanges").mkdirs();
+		new File(fitnesseRoot, "files/testResults/SuiteAll").mkdirs();
+		Files.write(new File(fitnesseRoot, "SuiteAll/TestOne/content.txt").toPath(), "|script|".getBytes());
+		Files.write(new File(fitnesseRoot, "RecentChanges/content.txt").toPath(), "|TestOne|".getBytes());
+		Files.write(new File(fitnesseRoot, "plugins.properties").toPath(), "Theme=bootstrap".getBytes());
+		Files.write(new File(fitnesseRoot, "files/testResults/SuiteAll/20160101.xml").toPath(), "<x/>".getBytes());
+
+		File snapshot = new File(dir, RootSnapshot.DIR + "/12/FitNesseRoot");
+		int[] files = new RootSnapshot.Create(snapshot.getPath(), true).invoke(fitnesseRoot, null);
+
+		Assert.assertEquals(3, files[0] + files[1]);
+		Assert.assertTrue("RecentChanges and properties should be copied", files[1] >= 2);
+		Assert.assertEquals("|script|", new String(Files.readAllBytes(new File(snapshot,
+				"SuiteAll/TestOne/content.txt").toPath())));
+		Assert.assertFalse(new File(snapshot, "files/testResults").exists());
+		Assert.assertTrue(new File(snapshot, "files").isDirectory());
+
+		Files.write(new File(snapshot, "RecentChanges/content.txt").toPath(), "|TestTwo|".getBytes());
+		Assert.assertEquals("|TestOne|", new String(Files.readAllBytes(new File(fitnesseRoot,
+				"RecentChanges/content.txt").toPath())));
+	}
+
+	@Test
+	public void copySnapshotShouldNotLinkAnyFile() throws Exception {
+		File dir = new File("target", "root-copy");
+		FileUtils.deleteDirectory(dir);
+		File fitnesseRoot = new File(dir, "FitNesseRoot");
+		new File(fitnesseRoot, "SuiteAll").mkdirs();
+		Files.write(new File(fitnesseRoot, "SuiteAll/content.txt").toPath(), "!contents".getBytes());
+
+		File copy = new File(dir, "shm/FitNesseRoot");
+		int[] files = new RootSnapshot.Create(copy.getPath(), false).invoke(fitnesseRoot, null);
+
+		Assert.assertEquals(0, files[0]);
+		Assert.assertEquals(1, files[1]);
+		Files.write(new File(copy, "SuiteAll/content.txt").toPath(), "changed".getBytes());
+		Assert.assertEquals("!contents", new String(Files.readAllBytes(new File(fitnesseRoot, "SuiteAll/content.txt")
+				.toPath())));
+	}
+
+	@Test
+	public void filesRewrittenByFitnesseShouldBeRecognized() {
+		Assert.assertTrue(RootSnapshot.isRewritten("RecentChanges/content.txt"));
+		Assert.assertTrue(RootSnapshot.isRewritten("ErrorLogs/SuiteAll/content.txt"));
+		Assert.assertTrue(RootSnapshot.isRewritten("plugins.properties"));
+		Assert.assertTrue(RootSnapshot.isRewritten("SuiteAll/TestOne/properties.xml"));
+		Assert.assertFalse(RootSnapshot.isRewritten("SuiteAll/content.txt"));
+		Assert.assertTrue(RootSnapshot.isLeftOut("files/testResults"));
+		Assert.assertFalse(RootSnapshot.isLeftOut("files/images"));
+	}
+
+	@Test
+	public void pluginsPropertiesShouldBeCopiedNextToSnapshot() throws Exception {
+		File dir = new File("target", "root-plugins");
+		FileUtils.deleteDirectory(dir);
+		File fitnesseRoot = new File(dir, "FitNesseRoot");
+		new File(fitnesseRoot, "SuiteAll").mkdirs();
+		Files.write(new File(fitnesseRoot, "SuiteAll/properties.xml").toPath(), "<properties/>".getBytes());
+		Files.write(new File(dir, "plugins.properties").toPath(), "SymbolTypes=com.example.Symbol".getBytes());
+
+		File snapshot = new File(dir, RootSnapshot.DIR + "/12/FitNesseRoot");
+		int[] files = new RootSnapshot.Create(snapshot.getPath(), true).invoke(fitnesseRoot, null);
+
+		Assert.assertEquals(0, files[0]);
+		Assert.assertEquals(2, files[1]);
+		Assert.assertEquals("SymbolTypes=com.example.Symbol", new String(Files.readAllBytes(new File(snapshot
+				.getParentFile(), "plugins.properties").toPath())));
+	}
+}
@@ -35,6 +35,20 @@ public class RunnerWithTimeOutTest {
 		});
 	}
 
+	@Test(expected = RunnerWithTimeOut.TimeOutException.class)
+	public void timeOutShouldBeToldApartFromInterruption() throws Exception {
+		runner = new RunnerWithTimeOut(100);
+		runner.run(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					// swallow
+				}
+			}
+		});
+	}
+
 	@Test
 	public void resettingRunnerShouldRestartTimeOutCountdown() throws Exception {
 		runner = new RunnerWithTimeOut(600);
@@ -0,0 +1,69 @@
+package hudson.plugins.fitnesse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardsTest {
+
+	@Test
+	public void shardTargetPageShouldSelectPartitionOfSuite() {
+		String shardTargetPage = Shards.getShardTargetPage("SuiteAll&suiteFilter=fast", 4, 1);
+
+		Assert.assertEquals("SuiteAll&suiteFilter=fast&partitionCount=4&partitionIndex=1", shardTargetPage);
+		Assert.assertEquals("fitnesse-results-SuiteAll_suiteFilter_fast_partitionCount_4_partitionIndex_1.xml",
+				FitnesseExecutor.getTargetResultsPath("fitnesse-results.xml", shardTargetPage));
+	}
+
+	@Test
+	public void shardsShouldBeAssignedToNodesInTurn() {
+		Assert.assertEquals(Arrays.asList("agent1", "agent2", "agent1"),
+				Shards.assign(Arrays.asList("agent1", "agent2"), 3));
+		Assert.assertEquals(Arrays.asList("agent1"), Shards.assign(Arrays.asList("agent1", "agent2", "agent3"), 1));
+	}
+
+	@Test
+	public void shardsShouldOnlyGetFitnesseAndSutArtifactsOfWorkspace() {
+		Assert.assertEquals("FitNesseRoot/**,fitnesse.jar,target/*.jar,lib/**/*.jar",
+				Shards.getCopyIncludes("./FitNesseRoot/", "fitnesse.jar", "target/*.jar, lib/**/*.jar"));
+		Assert.assertEquals("wiki/FitNesseRoot/**",
+				Shards.getCopyIncludes("wiki\\FitNesseRoot", "/opt/fitnesse/fitnesse.jar", "C:\\sut\\*.jar"));
+	}
+
+	@Test
+	public void workspaceShouldBeCopiedOncePerNode() throws Exception {
+		final Shards.Copies copies = new Shards.Copies();
+		final AtomicInteger agent1Copies = new AtomicInteger();
+		final AtomicInteger agent2Copies = new AtomicInteger();
+		List<Thread> shards = new ArrayList<Thread>();
+		for (final String node : Shards.assign(Arrays.asList("agent1", "agent2"), 6)) {
+			shards.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						copies.await(node, new Callable<Void>() {
+							public Void call() throws InterruptedException {
+								Thread.sleep(50);
+								(node.equals("agent1") ? agent1Copies : agent2Copies).incrementAndGet();
+								return null;
+							}
+						});
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}));
+		}
+		for (Thread shard : shards)
+			shard.start();
+		for (Thread shard : shards)
+			shard.join();
+
+		Assert.assertEquals(1, agent1Copies.get());
+		Assert.assertEquals(1, agent2Copies.get());
+	}
+}
@@ -0,0 +1,98 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StallDetectorTest {
+
+	private static class CountingTimeout implements Resettable {
+		int resets;
+
+		public void reset() {
+			++resets;
+		}
+	}
+
+	@Test
+	public void stallShouldBeReportedOnceAfterQuietPeriod() {
+		StallDetector stallDetector = new StallDetector(new CountingTimeout(), 1000, 0);
+
+		Assert.assertFalse(stallDetector.isNewStall(999));
+		Assert.assertTrue(stallDetector.isNewStall(1000));
+		Assert.assertFalse(stallDetector.isNewStall(5000));
+	}
+
+	@Test
+	public void receivedResultsShouldStartQuietPeriodOverAndResetTimeout() {
+		CountingTimeout timeout = new CountingTimeout();
+		StallDetector stallDetector = new StallDetector(timeout, 1000, 0);
+		Assert.assertTrue(stallDetector.isNewStall(1000));
+
+		stallDetector.reset(1500);
+
+		Assert.assertEquals(1, timeout.resets);
+		Assert.assertFalse(stallDetector.isNewStall(2000));
+		Assert.assertTrue(stallDetector.isNewStall(2500));
+	}
+
+	@Test
+	public void newRequestShouldStartQuietPeriodOverWithoutResettingTimeout() {
+		CountingTimeout timeout = new CountingTimeout();
+		StallDetector stallDetector = new StallDetector(timeout, 1000, 0);
+
+		stallDetector.requesting("/SuiteA?suite&format=xml", 800);
+
+		Assert.assertEquals(0, timeout.resets);
+		Assert.assertFalse(stallDetector.isNewStall(1000));
+		Assert.assertTrue(stallDetector.isNewStall(1800));
+	}
+
+	@Test
+	public void descriptionShouldNameLastCompletedPageAndRequest() {
+		StallDetector stallDetector = new StallDetector(new CountingTimeout(), 1000, 0);
+		Assert.assertEquals("No results received for 2s before any page completed",
+				stallDetector.describe(2000));
+
+		stallDetector.requesting("/SuiteA?suite&format=xml", 0);
+		stallDetector.pageCompleted("SuiteA.PageOne");
+
+		Assert.assertEquals(
+				"No results received for 61s since page SuiteA.PageOne completed, while executing /SuiteA?suite&format=xml",
+				stallDetector.describe(61000));
+	}
+
+	@Test
+	public void javaProcessesShouldBeRecognizedByTheirExecutable() {
+		Assert.assertTrue(StallDetector.isJava(Arrays.asList("/usr/lib/jvm/jdk8/bin/java", "-jar", "fitnesse.jar")));
+		Assert.assertTrue(StallDetector.isJava(Arrays.asList("C:\\jdk8\\bin\\java.exe", "-cp", "fitnesse.jar")));
+		Assert.assertTrue(StallDetector.isJava(Arrays.asList("java", "fitnesse.slim.SlimService", "8086")));
+		Assert.assertFalse(StallDetector.isJava(Arrays.asList("/bin/sh", "-c", "java -jar fitnesse.jar")));
+		Assert.assertFalse(StallDetector.isJava(Collections.<String> emptyList()));
+	}
+
+	@Test
+	public void jstackShouldBeTakenFromTheJdkOfTheProcess() throws Exception {
+		File bin = File.createTempFile("jdk", "bin");
+		bin.delete();
+		bin.mkdirs();
+		File jstack = new File(bin, "jstack");
+		try {
+			Assert.assertEquals("jstack", StallDetector.getJstack(new File(bin, "java").getPath()));
+			jstack.createNewFile();
+			Assert.assertEquals(jstack.getPath(), StallDetector.getJstack(new File(bin, "java").getPath()));
+			Assert.assertEquals("jstack", StallDetector.getJstack("java"));
+		} finally {
+			jstack.delete();
+			bin.delete();
+		}
+	}
+
+	@Test
+	public void artifactNameShouldHoldStallAndProcess() {
+		Assert.assertEquals("fitnesse-stall-2-4711.txt", StallDetector.getArtifactName(2, 4711));
+	}
+}
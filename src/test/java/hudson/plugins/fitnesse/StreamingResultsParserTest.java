@@ -0,0 +1,192 @@
+package hudson.plugins.fitnesse;
+
+import hudson.plugins.fitnesse.NativePageCounts.Counts;
+import hudson.plugins.fitnesse.StreamingResultsParser.PageListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingResultsParserTest {
+	private static final String RESULT = "<result><counts><right>1</right><wrong>2</wrong><ignores>3</ignores>"
+			+ "<exceptions>4</exceptions></counts><runTimeInMillis>5</runTimeInMillis>"
+			+ "<content><![CDATA[<p>no </result> in here</p>]]></content>"
+			+ "<relativePageName>TestBlah</relativePageName>"
+			+ "<pageHistoryLink>SuiteBlah.TestBlah?pageHistory&amp;resultDate=20100307181143&amp;format=xml</pageHistoryLink>"
+			+ "</result>";
+	private static final String RESULTS = "<?xml version=\"1.0\"?><testResults><rootPath>SuiteBlah</rootPath>" + RESULT
+			+ "<finalCounts><right>0</right><wrong>1</wrong><ignores>0</ignores><exceptions>0</exceptions></finalCounts>"
+			+ "</testResults>";
+
+	private final List<Counts> pages = new ArrayList<Counts>();
+	private final List<String> elements = new ArrayList<String>();
+
+	private StreamingResultsParser newParser() {
+		return new StreamingResultsParser(new PageListener() {
+			public void pageCompleted(Counts page, byte[] resultElement) {
+				pages.add(page);
+				elements.add(new String(resultElement));
+			}
+		});
+	}
+
+	@Test
+	public void parserShouldReportPageCountsOfResultElement() throws Exception {
+		StreamingResultsParser parser = newParser();
+		parser.write(RESULTS.getBytes());
+
+		Assert.assertEquals(1, pages.size());
+		Counts page = pages.get(0);
+		Assert.assertEquals("SuiteBlah.TestBlah", page.page);
+		Assert.assertEquals("20100307181143", page.resultsDate);
+		Assert.assertEquals(1, page.right);
+		Assert.assertEquals(2, page.wrong);
+		Assert.assertEquals(3, page.ignored);
+		Assert.assertEquals(4, page.exceptions);
+		Assert.assertEquals(5, page.duration);
+		Assert.assertEquals(RESULT, elements.get(0));
+		Assert.assertEquals(1, parser.getFailedPages());
+	}
+
+	@Test
+	public void parserShouldFindResultsSplitAcrossWrites() throws Exception {
+		byte[] bytes = getSuiteResults();
+		StreamingResultsParser parser = newParser();
+		for (int i = 0; i < bytes.length; i += 7) {
+			parser.write(bytes, i, Math.min(7, bytes.length - i));
+		}
+
+		Assert.assertEquals(14, pages.size());
+		Assert.assertEquals(14, parser.getCompletedPages());
+		Assert.assertEquals(bytes.length, parser.getReceivedBytes());
+		Assert.assertEquals("WaferSlim.SuiteBranchMain.SuiteAll.TestComment", pages.get(0).page);
+	}
+
+	@Test
+	public void completedBytesShouldStopAtEndOfLastCompleteResult() throws Exception {
+		StreamingResultsParser parser = newParser();
+		String cut = RESULTS.substring(0, RESULTS.indexOf("<finalCounts>") + 5);
+		parser.write(cut.getBytes());
+
+		Assert.assertEquals(RESULTS.lastIndexOf("</result>") + "</result>".length(), parser.getCompletedBytes());
+		Assert.assertEquals(cut.length(), parser.getReceivedBytes());
+	}
+
+	@Test
+	public void cutOffResponseShouldNotCountAsCompleteDocument() throws Exception {
+		StreamingResultsParser parser = newParser();
+		parser.write(RESULTS.getBytes());
+		Assert.assertEquals(1, parser.getCompletedDocuments());
+
+		String cut = RESULTS.substring(0, RESULTS.indexOf("<runTimeInMillis>"));
+		parser.write(cut.getBytes());
+		Assert.assertEquals(1, parser.getCompletedDocuments());
+		Assert.assertEquals(cut.length(), parser.discardIncomplete());
+
+		parser.write(RESULTS.getBytes());
+		Assert.assertEquals(2, parser.getCompletedDocuments());
+		Assert.assertEquals(2, pages.size());
+		Assert.assertEquals(RESULT, elements.get(1));
+	}
+
+	@Test
+	public void discardShouldKeepCompleteResultsBeforeCut() throws Exception {
+		StreamingResultsParser parser = newParser();
+		String cut = RESULTS.substring(0, RESULTS.indexOf("</finalCounts>"));
+		parser.write(cut.getBytes());
+
+		Assert.assertEquals(1, pages.size());
+		Assert.assertEquals(cut.length() - RESULTS.indexOf("<finalCounts>"), parser.discardIncomplete());
+		Assert.assertEquals(0, parser.getCompletedDocuments());
+	}
+
+	@Test
+	public void writtenResultsShouldBeReadableByRecorder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ResultsXmlWriter writer = new ResultsXmlWriter(out, "SuiteBlah");
+		writer.append(StreamingResultsParser.parseResult(RESULT.getBytes()), RESULT.getBytes());
+		writer.close();
+
+		NativePageCounts pageCounts = new NativePageCountsParser().parse(new ByteArrayInputStream(out.toByteArray()),
+				"results.xml", System.out, "./target/");
+		Assert.assertEquals(1, pageCounts.getDetails().size());
+		Assert.assertEquals(0, pageCounts.getSummary().right);
+		Assert.assertEquals(1, pageCounts.getSummary().wrong);
+		Assert.assertEquals("SuiteBlah.TestBlah", pageCounts.getDetails().get(0).page);
+	}
+
+	@Test
+	public void wholeResponseShouldBeWrittenWithItsOwnVersionAndFinalCounts() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ResultsXmlWriter writer = new ResultsXmlWriter(out, "TestDecisionTable");
+		StreamingResultsParser parser = new StreamingResultsParser(new PageListener() {
+			public void pageCompleted(Counts page, byte[] resultElement) throws IOException {
+				writer.append(page, resultElement);
+			}
+		});
+		writer.keepFrameOf(parser);
+		parser.write(getResults("fitnesse-test-results.xml"));
+		writer.close();
+
+		String written = new String(out.toByteArray(), "UTF-8");
+		Assert.assertTrue(written.contains("<FitNesseVersion>v20100103</FitNesseVersion>"));
+		NativePageCounts pageCounts = new NativePageCountsParser().parse(new ByteArrayInputStream(out.toByteArray()),
+				"results.xml", System.out, "./target/");
+		Assert.assertEquals(16, pageCounts.getSummary().right);
+		Assert.assertEquals(2, pageCounts.getSummary().wrong);
+	}
+
+	@Test
+	public void cutOffResponseShouldBeClosedWithCountsOfCompletePages() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ResultsXmlWriter writer = new ResultsXmlWriter(out, "SuiteBlah");
+		StreamingResultsParser parser = new StreamingResultsParser(new PageListener() {
+			public void pageCompleted(Counts page, byte[] resultElement) throws IOException {
+				writer.append(page, resultElement);
+			}
+		});
+		writer.keepFrameOf(parser);
+		parser.write(RESULTS.substring(0, RESULTS.indexOf("<finalCounts>") + 20).getBytes());
+		parser.discardIncomplete();
+		writer.close();
+
+		NativePageCounts pageCounts = new NativePageCountsParser().parse(new ByteArrayInputStream(out.toByteArray()),
+				"results.xml", System.out, "./target/");
+		Assert.assertEquals(1, pageCounts.getDetails().size());
+		Assert.assertEquals(1, pageCounts.getSummary().wrong);
+	}
+
+	@Test
+	public void responseWithoutResultsShouldOnlyBeWrittenWhenComplete() throws Exception {
+		ResultsXmlWriter writer = new ResultsXmlWriter(new ByteArrayOutputStream(), "SuiteBlah");
+		StreamingResultsParser parser = new StreamingResultsParser(null);
+		writer.keepFrameOf(parser);
+		parser.write("<html><body>Error 404</body></html>".getBytes());
+		Assert.assertTrue(writer.isEmpty());
+
+		parser.write("<?xml version=\"1.0\"?><testResults><rootPath>SuiteBlah</rootPath></testResults>".getBytes());
+		Assert.assertFalse(writer.isEmpty());
+	}
+
+	private byte[] getSuiteResults() throws IOException {
+		return getResults("fitnesse-suite-results.xml");
+	}
+
+	private byte[] getResults(String resource) throws IOException {
+		InputStream sampleXml = getClass().getResourceAsStream(resource);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			IOUtils.copy(sampleXml, bytes);
+			return bytes.toByteArray();
+		} finally {
+			sampleXml.close();
+		}
+	}
+}
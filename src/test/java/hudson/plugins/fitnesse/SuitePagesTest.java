@@ -0,0 +1,85 @@
+package hudson.plugins.fitnesse;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SuitePagesTest {
+	private File fitnesseRoot;
+
+	@Before
+	public void createFitnesseRoot() throws Exception {
+		fitnesseRoot = new File("target", "suite-pages/FitNesseRoot");
+		FileUtils.deleteDirectory(fitnesseRoot);
+		page("SuiteAll/TestOne", "<properties><Test/></properties>");
+		page("SuiteAll/SetUp", "<properties><Test/></properties>");
+		page("SuiteAll/SuiteSub", "<properties><Suite/></properties>");
+		page("SuiteAll/SuiteSub/TestTwo", "<properties><Test>true</Test></properties>");
+		page("SuiteAll/SuitePruned", "<properties><Suite/><Prune/></properties>");
+		page("SuiteAll/SuitePruned/TestHidden", "<properties><Test/></properties>");
+		wikiPage("SuiteAll/TestThree.wiki", "just a test by name");
+		wikiPage("SuiteAll/ScenarioLibrary.wiki", "---\nHelp: scenarios\n---\n");
+		wikiPage("SuiteAll/CheckFour.wiki", "---\nTest\n---\n|script|");
+		wikiPage("SuiteAll/TestSkipped.wiki", "---\nPrune\n---\n");
+		wikiPage("SuiteOther/TestElsewhere.wiki", "");
+	}
+
+	private void page(String path, String properties) throws Exception {
+		File dir = new File(fitnesseRoot, path);
+		dir.mkdirs();
+		Files.write(new File(dir, "content.txt").toPath(), "!contents".getBytes());
+		Files.write(new File(dir, "properties.xml").toPath(), properties.getBytes());
+	}
+
+	private void wikiPage(String path, String content) throws Exception {
+		File file = new File(fitnesseRoot, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes());
+	}
+
+	@Test
+	public void listShouldFindTestPagesBelowTargetPage() throws Exception {
+		Map<String, Long> pages = new SuitePages.ListTestPages("SuiteAll").invoke(fitnesseRoot, null);
+
+		Assert.assertEquals(Arrays.asList("SuiteAll.CheckFour", "SuiteAll.SuiteSub.TestTwo", "SuiteAll.TestOne",
+				"SuiteAll.TestThree"), Arrays.asList(pages.keySet().toArray()));
+	}
+
+	@Test
+	public void listShouldFindNothingBelowMissingPage() throws Exception {
+		Assert.assertTrue(new SuitePages.ListTestPages("SuiteNone").invoke(fitnesseRoot, null).isEmpty());
+	}
+
+	@Test
+	public void prioritizeShouldPutFailedThenChangedPagesFirst() {
+		Map<String, Long> pages = new TreeMap<String, Long>();
+		pages.put("S.TestA", 10L);
+		pages.put("S.TestB", 30L);
+		pages.put("S.TestC", 10L);
+		pages.put("S.TestD", 20L);
+
+		List<String> ordered = SuitePages.prioritize(pages, Arrays.asList("S.TestC", "S.TestGone", "S.TestD"), 15);
+
+		Assert.assertEquals(Arrays.asList("S.TestC", "S.TestD", "S.TestB", "S.TestA"), ordered);
+	}
+
+	@Test
+	public void prioritizeShouldKeepNameOrderWithoutHistory() {
+		Map<String, Long> pages = new TreeMap<String, Long>();
+		pages.put("S.TestB", 30L);
+		pages.put("S.TestA", 10L);
+
+		List<String> ordered = SuitePages.prioritize(pages, Collections.<String> emptyList(), Long.MAX_VALUE);
+
+		Assert.assertEquals(Arrays.asList("S.TestA", "S.TestB"), ordered);
+	}
+}